@@ -0,0 +1,82 @@
+package com.kantenkugel.consoleutils;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building and querying the completion indexes.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CompletionBenchmarks {
+    @Param({"1000", "100000"})
+    public int optionCount;
+
+    private String[] options;
+    private String[] queries;
+    private int nextQuery = 0;
+    private AutoCompleter.PrefixTree prefixTree;
+    private CompactCompletionIndex compactIndex;
+    private AutoCompleter.DependentOptions dependentOptions;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        options = new String[optionCount];
+        for(int i = 0; i < optionCount; i++)
+            options[i] = "/srv/" + Integer.toString(random.nextInt(optionCount), 36) + "/data-" + i + ".log";
+        //prefixes of random options, so lookups walk a few levels deep
+        queries = new String[1024];
+        for(int i = 0; i < queries.length; i++) {
+            String option = options[random.nextInt(optionCount)];
+            queries[i] = option.substring(0, 1 + random.nextInt(option.length()));
+        }
+        prefixTree = AutoCompleter.PrefixTree.from(options);
+        compactIndex = CompactCompletionIndex.from(options);
+
+        dependentOptions = new AutoCompleter.DependentOptions();
+        AutoCompleter.DependentOptions git = dependentOptions.createOption("git");
+        git.createOption("checkout").createOptions(options);
+        git.createOption("status");
+        dependentOptions.createOption("ls").createOptions(options);
+    }
+
+    private String nextQuery() {
+        String query = queries[nextQuery];
+        nextQuery = (nextQuery + 1) & (queries.length - 1);
+        return query;
+    }
+
+    @Benchmark
+    public CompletionIndex buildPrefixTree() {
+        return AutoCompleter.PrefixTree.from(options);
+    }
+
+    @Benchmark
+    public CompletionIndex buildCompactIndex() {
+        return CompactCompletionIndex.from(options);
+    }
+
+    @Benchmark
+    public String prefixTreeLongestPrefix() {
+        return prefixTree.getLongestPrefix(nextQuery());
+    }
+
+    @Benchmark
+    public String compactIndexLongestPrefix() {
+        return compactIndex.getLongestPrefix(nextQuery());
+    }
+
+    @Benchmark
+    public CompletionIndex dependentOptionsForPrevInput() {
+        return dependentOptions.getTreeForPrevInput("git checkout");
+    }
+}
@@ -0,0 +1,64 @@
+package com.kantenkugel.consoleutils;
+
+import biz.source_code.utils.RawConsoleInput;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the input hot paths: decoding, char classification and a full read loop with auto completion.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputBenchmarks {
+    private static final String[] OPTIONS = {"test", "testing", "auto", "autocomplete", "foo", "bar", "aurora", "auras"};
+    //typing with completions, a typo and corrections, submitted by the newline
+    private static final char[] SCRIPT = "au\tcomplete fo\t bar te\b\btest\t aurox\b\ba\tfoo\n".toCharArray();
+
+    private final byte[] utf8Input = ("Plain ASCII input, \u00fcml\u00e4\u00fcts, \u20ac signs and "
+            + "\ud83d\ude00 emoji. ").getBytes(StandardCharsets.UTF_8);
+    private final char[] decoded = new char[utf8Input.length];
+    private final RawConsoleInput.Decoder decoder = RawConsoleInput.Decoder.forCharset(StandardCharsets.UTF_8);
+    private final char[] printableInput = "abc XYZ 123 \u00e4\u00df\u20ac\t\n\b\u0003\uffff".toCharArray();
+
+    private final InMemoryTerminalBackend backend = new InMemoryTerminalBackend();
+    private TerminalBackend originalBackend;
+
+    @Setup
+    public void useScriptedTerminal() {
+        originalBackend = ConsoleUtils.getTerminalBackend();
+        ConsoleUtils.setTerminalBackend(backend);
+    }
+
+    @TearDown
+    public void restoreTerminal() {
+        ConsoleUtils.setTerminalBackend(originalBackend);
+    }
+
+    @Benchmark
+    public int decodeUtf8() {
+        return decoder.decode(utf8Input, 0, utf8Input.length, decoded, 0, decoded.length);
+    }
+
+    @Benchmark
+    public void isPrintableChar(Blackhole blackhole) {
+        for(char c : printableInput)
+            blackhole.consume(ConsoleUtils.isPrintableChar(c));
+    }
+
+    @Benchmark
+    public String completerReadLoop() throws IOException {
+        backend.clearOutput();
+        backend.unread(SCRIPT, 0, SCRIPT.length);
+        return new AutoCompleter(prev -> OPTIONS).get();
+    }
+}
@@ -22,6 +22,7 @@ import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 import com.sun.jna.LastErrorException;
 import com.sun.jna.Library;
 import com.sun.jna.Native;
@@ -34,6 +35,11 @@ import com.sun.jna.ptr.IntByReference;
  *
  * <p>This class is used for console mode programs.
  * It supports non-blocking reads of single key strokes without echo.
+ *
+ * <p>The input buffers and the raw mode session are shared by the whole program, so reads,
+ * unread() and the raw mode switches are serialized by a single lock. A read that waits for input
+ * holds the lock, so a read, unread() or enterRawMode() of another thread waits until it returns.
+ * wakeup() and resetConsoleMode() do not take the lock, so they can end or clean up a waiting read.
  */
 public class RawConsoleInput {
 
@@ -43,7 +49,10 @@ public class RawConsoleInput {
 
     private static boolean                 initDone;
     private static boolean                 stdinIsConsole;
-    private static boolean                 consoleModeAltered;
+    private static volatile boolean        consoleModeAltered;   // also written by the shutdown hook
+    private static volatile boolean        rawModeSession;
+    private static final Object            readLock      = new Object();
+    private static final BufferedInput     stdin         = new BufferedInput(Charset.defaultCharset(), 65536);
 
     /**
      * Reads a character from the console without echo.
@@ -57,10 +66,197 @@ public class RawConsoleInput {
      *   Otherwise an Unicode character code within the range 0 to 0xFFFF.
      */
     public static int read (boolean wait) throws IOException {
+        return read(wait ? -1 : 0); }
+
+    /**
+     * Reads a character from the console without echo, waiting at most the given time.
+     *
+     * <p>On Unix, the wait is done by poll(), so no CPU time is used while waiting.
+     * On Windows, redirected input can not be waited for, so the timeout is ignored for it.
+     *
+     * @param timeoutMillis
+     *   The maximum time to wait for an input character in milliseconds,
+     *   <code>0</code> to return immediately or a negative value to wait without a limit.
+     * @return
+     *   -2 if no character is available within the timeout or the read was ended by wakeup().
+     *   -1 on EOF.
+     *   Otherwise an Unicode character code within the range 0 to 0xFFFF.
+     *   Function keys and arrow keys are returned as key codes 0xE000 plus the scan code.
+     */
+    public static int read (long timeoutMillis) throws IOException {
+        synchronized (readLock) {
+            if (stdin.readPushback(singleCharBuf, 0, 1) > 0) {
+                return singleCharBuf[0]; }
+            if (isWindows) {
+                return readWindows(timeoutMillis); }
+            else {
+                return readUnix(timeoutMillis); }}}
+
+    /**
+     * Reads all characters that are currently available from the console without echo.
+     *
+     * <p>Unlike read(boolean), this drains everything that is available (up to <code>len</code>
+     * characters) in one call, so a pasted text is not read byte by byte.
+     *
+     * @param dst
+     *   The array to store the characters in.
+     * @param off
+     *   The index of the first character in <code>dst</code> to write.
+     * @param len
+     *   The maximum number of characters to read.
+     * @param wait
+     *   <code>true</code> to wait until at least one input character is available,
+     *   <code>false</code> to return immediately if no character is available.
+     * @return
+     *   -2 if <code>wait</code> is <code>false</code> and no character is available.
+     *   -1 on EOF.
+     *   Otherwise the number of characters stored in <code>dst</code>, at least 1.
+     */
+    public static int read (char[] dst, int off, int len, boolean wait) throws IOException {
+        return read(dst, off, len, wait ? -1 : 0); }
+
+    /**
+     * Reads all characters that are currently available from the console without echo,
+     * waiting at most the given time for the first one.
+     *
+     * @param dst
+     *   The array to store the characters in.
+     * @param off
+     *   The index of the first character in <code>dst</code> to write.
+     * @param len
+     *   The maximum number of characters to read.
+     * @param timeoutMillis
+     *   The maximum time to wait for an input character in milliseconds,
+     *   <code>0</code> to return immediately or a negative value to wait without a limit.
+     *   See read(long).
+     * @return
+     *   -2 if no character is available within the timeout or the read was ended by wakeup().
+     *   -1 on EOF.
+     *   Otherwise the number of characters stored in <code>dst</code>, at least 1.
+     */
+    public static int read (char[] dst, int off, int len, long timeoutMillis) throws IOException {
+        if (off < 0 || len <= 0 || off + len > dst.length) {
+            throw new IndexOutOfBoundsException(); }
+        synchronized (readLock) {
+            int n = stdin.readPushback(dst, off, len);
+            if (n > 0) {
+                return n; }
+            if (isWindows) {
+                return readWindows(dst, off, len, timeoutMillis); }
+            else {
+                return readUnix(dst, off, len, timeoutMillis); }}}
+
+    /**
+     * Sets how long to wait for the rest of a key sequence after the escape key on Unix.
+     *
+     * <p>Function keys and arrow keys are sent as escape sequences on Unix, which read() converts to
+     * single key codes (see KeyDecoder). If the rest of a sequence does not arrive within this time,
+     * the escape key was pressed on its own. The default is 50 ms.
+     */
+    public static void setEscapeTimeout (long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("Escape timeout must not be negative."); }
+        escTimeoutMillis = timeoutMillis; }
+
+    /**
+     * Ends a read from the console that is waiting for input in another thread, so it returns -2.
+     *
+     * <p>If no read is waiting, the next read from the console returns -2 immediately.
+     * Several wakeups before a read are combined into one.
+     * This only applies to console input, reads of redirected input can not be woken up.
+     *
+     * <p>On Unix, a self-pipe is waited for together with STDIN, on Windows an event object.
+     */
+    public static void wakeup() throws IOException {
         if (isWindows) {
-            return readWindows(wait); }
+            initWindows();
+            if (wakeupEvent != null) {
+                kernel32.SetEvent(wakeupEvent); }}
         else {
-            return readUnix(wait); }}
+            initUnix();
+            wakeupUnix(); }}
+
+    /**
+     * Reads a whole line without echo.
+     *
+     * <p>This is meant for input that is not a console (see isConsole()), eg. piped input.
+     * On Unix, the line is decoded directly from a large input buffer instead of character
+     * by character.
+     *
+     * @return
+     *   The line without the line terminator (<code>\n</code> or <code>\r\n</code>),
+     *   or <code>null</code> on EOF.
+     */
+    public static String readLine() throws IOException {
+        synchronized (readLock) {
+            if (!isWindows) {
+                initUnix();
+                if (!stdinIsConsole) {
+                    return stdin.readLine(System.in); }}
+            StringBuilder line = new StringBuilder();           // read() serves the pushed back characters first
+            while (true) {
+                int c = read(true);
+                if (c == -2) {                                    // woken up
+                    continue; }
+                if (c == -1 && line.length() == 0) {
+                    return null; }
+                if (c == -1 || c == '\n') {
+                    int len = line.length();
+                    return line.substring(0, len > 0 && line.charAt(len - 1) == '\r' ? len - 1 : len); }
+                line.append((char)c); }}}
+
+    /**
+     * Returns whether the standard input is a console.
+     *
+     * <p>If it is not (eg. piped input or a file), there is no raw mode and no echo.
+     */
+    public static boolean isConsole() throws IOException {
+        if (isWindows) {
+            initWindows(); }
+        else {
+            initUnix(); }
+        return stdinIsConsole; }
+
+    /**
+     * Pushes characters back, so they are returned again by the next read calls.
+     *
+     * <p>This can be used to give back characters that were read in bulk but not consumed.
+     * Characters pushed back by a later call are read before characters of earlier calls.
+     */
+    public static void unread (char[] src, int off, int len) {
+        synchronized (readLock) {
+            stdin.unread(src, off, len); }}
+
+    /**
+     * Switches the console to raw mode for a whole input session.
+     *
+     * <p>Without a session, read() switches the console mode before and after every single
+     * character. While a session is active, the console stays in raw mode and read()
+     * only has to read the input.
+     *
+     * <p>The session ends with leaveRawMode() or resetConsoleMode(), the latter is also
+     * called by the shutdown hook.
+     */
+    public static void enterRawMode() throws IOException {
+        synchronized (readLock) {
+            if (isWindows) {
+                enterRawModeWindows(); }
+            else {
+                enterRawModeUnix(); }}}
+
+    /**
+     * Ends a raw mode session started by enterRawMode().
+     *
+     * <p>The console is left in the same non-echo mode a single read() call leaves it in.
+     * Use resetConsoleMode() to switch back to normal line mode with echo.
+     */
+    public static void leaveRawMode() throws IOException {
+        synchronized (readLock) {
+            if (!rawModeSession) {
+                return; }
+            rawModeSession = false;
+            if (!isWindows && stdinIsConsole) {
+                setTerminalAttrs(stdinFd, intermediateTermios); }}}
 
     /**
      * Resets console mode to normal line mode with echo.
@@ -69,8 +265,12 @@ public class RawConsoleInput {
      *
      * <p>On Unix this method switches the console back to echo mode.
      * read() leaves the console in non-echo mode.
+     *
+     * <p>This also ends an active raw mode session.
+     * It does not wait for a read of another thread, so it can be called by the shutdown hook.
      */
     public static void resetConsoleMode() throws IOException {
+        rawModeSession = false;
         if (isWindows) {
             resetConsoleModeWindows(); }
         else {
@@ -93,23 +293,71 @@ public class RawConsoleInput {
     private static Msvcrt        msvcrt;
     private static Kernel32      kernel32;
     private static Pointer       consoleHandle;
+    private static Pointer       wakeupEvent;
+    private static Pointer[]     waitHandles;
     private static int           originalConsoleMode;
 
-    private static int readWindows (boolean wait) throws IOException {
+    private static int readWindows (long timeout) throws IOException {
         initWindows();
         if (!stdinIsConsole) {
             int c = msvcrt.getwchar();
             if (c == 0xFFFF) {
                 c = -1; }
             return c; }
-        consoleModeAltered = true;
-        setConsoleMode(consoleHandle, originalConsoleMode & ~Kernel32Defs.ENABLE_PROCESSED_INPUT);
+        if (!rawModeSession) {
+            consoleModeAltered = true;
+            setConsoleMode(consoleHandle, originalConsoleMode & ~Kernel32Defs.ENABLE_PROCESSED_INPUT); }
         // ENABLE_PROCESSED_INPUT must remain off to prevent Ctrl-C from beeing processed by the system
         // while the program is not within getwch().
-        if (!wait && msvcrt._kbhit() == 0) {
-            return -2; }                                         // no key available
+        if (!waitForKeyWindows(timeout)) {
+            return -2; }                                         // no key available or woken up
         return getwch(); }
 
+    private static int readWindows (char[] dst, int off, int len, long timeout) throws IOException {
+        initWindows();
+        if (!stdinIsConsole) {
+            int c = readWindows(timeout);
+            if (c < 0) {
+                return c; }
+            dst[off] = (char)c;
+            return 1; }
+        if (!rawModeSession) {
+            consoleModeAltered = true;
+            setConsoleMode(consoleHandle, originalConsoleMode & ~Kernel32Defs.ENABLE_PROCESSED_INPUT); }
+        if (!waitForKeyWindows(timeout)) {
+            return -2; }                                         // no key available or woken up
+        int n = 0;
+        do {
+            dst[off + n++] = (char)getwch(); }
+        while (n < len && msvcrt._kbhit() != 0);               // drain all keys that are already available
+        return n; }
+
+    // The console handle is signaled by any console event (eg. mouse or focus events), not only by
+    // key presses. _kbhit() discards the events that are no key presses, so waiting is repeated
+    // until a key is available, the timeout has expired or the wakeup event is signaled.
+    private static boolean waitForKeyWindows (long timeout) {
+        long deadline = System.nanoTime() + timeout * 1000000L;
+        while (msvcrt._kbhit() == 0) {
+            int waitMillis = Kernel32Defs.INFINITE;
+            if (timeout >= 0) {
+                long remaining = (deadline - System.nanoTime()) / 1000000L;
+                if (remaining <= 0) {
+                    return false; }
+                waitMillis = (int)Math.min(remaining, Integer.MAX_VALUE); }
+            if (waitHandles == null) {
+                kernel32.WaitForSingleObject(consoleHandle, waitMillis); }
+            else if (kernel32.WaitForMultipleObjects(2, waitHandles, false, waitMillis) == Kernel32Defs.WAIT_OBJECT_0 + 1) {
+                return false; }}                                  // woken up, the auto-reset event is reset by the wait
+        return true; }
+
+    private static void enterRawModeWindows() throws IOException {
+        initWindows();
+        if (!stdinIsConsole) {
+            return; }
+        consoleModeAltered = true;
+        setConsoleMode(consoleHandle, originalConsoleMode & ~Kernel32Defs.ENABLE_PROCESSED_INPUT);
+        rawModeSession = true; }
+
     private static int getwch() {
         int c = msvcrt._getwch();
         if (c == 0 || c == 0xE0) {                              // Function key or arrow key
@@ -133,6 +381,9 @@ public class RawConsoleInput {
         catch (IOException e) {
             stdinIsConsole = false; }
         if (stdinIsConsole) {
+            wakeupEvent = kernel32.CreateEventW(null, false, false, null);  // auto-reset event
+            if (wakeupEvent != null) {
+                waitHandles = new Pointer[] {consoleHandle, wakeupEvent}; }
             registerShutdownHook(); }
         initDone = true; }
 
@@ -171,39 +422,109 @@ public class RawConsoleInput {
         static final int  ENABLE_PROCESSED_INPUT = 0x0001;
         static final int  ENABLE_LINE_INPUT      = 0x0002;
         static final int  ENABLE_ECHO_INPUT      = 0x0004;
-        static final int  ENABLE_WINDOW_INPUT    = 0x0008; }
+        static final int  ENABLE_WINDOW_INPUT    = 0x0008;
+        static final int  INFINITE               = 0xFFFFFFFF;
+        static final int  WAIT_OBJECT_0          = 0; }
 
     private static interface Kernel32 extends Library {
         int GetConsoleMode (Pointer hConsoleHandle, IntByReference lpMode);
         int SetConsoleMode (Pointer hConsoleHandle, int dwMode);
-        Pointer GetStdHandle (int nStdHandle); }
+        Pointer GetStdHandle (int nStdHandle);
+        int WaitForSingleObject (Pointer hHandle, int dwMilliseconds);
+        int WaitForMultipleObjects (int nCount, Pointer[] lpHandles, boolean bWaitAll, int dwMilliseconds);
+        Pointer CreateEventW (Pointer lpEventAttributes, boolean bManualReset, boolean bInitialState, String lpName);
+        int SetEvent (Pointer hEvent); }
 
 //--- Unix ---------------------------------------------------------------------
 
 // The Unix version uses tcsetattr() to switch the console to non-canonical mode,
-// System.in.available() to check whether data is available and System.in.read()
-// to read bytes from the console.
-// A CharsetDecoder is used to convert bytes to characters.
+// System.in.available() and poll() to check whether data is available or wait for it with a timeout
+// and System.in.read() to read bytes from the console.
+// Waiting for console input can be ended by wakeup(), which writes to a pipe that is polled together
+// with STDIN.
+// Within a raw mode session the console mode is switched only once instead of around every read.
+// All bytes that are available are read into the buffer of a BufferedInput at once, single character
+// reads are served from there as well.
+// Its Decoder keeps the state of incomplete characters between reads, which is guarded by readLock.
 
     private static final int               stdinFd = 0;
     private static Libc                    libc;
-    private static CharsetDecoder          charsetDecoder;
     private static Termios                 originalTermios;
     private static Termios                 rawTermios;
     private static Termios                 intermediateTermios;
+    private static final char[]            singleCharBuf = new char[1];
+
+    private static Pollfd[]                pollfds;
+    private static final KeyDecoder        keyDecoder    = new KeyDecoder();
+    private static final char[]            keyInBuf      = new char[4096];  // decoded characters before the key decoder
+    private static int                     keyInPos;
+    private static int                     keyInLen;
+    private static long                    escDeadline;
+    private static boolean                 escDeadlineSet;
+    private static volatile long           escTimeoutMillis = 50;
+    private static int[]                   wakeupPipe;                      // read end, write end
+    private static final AtomicBoolean     wakeupPending = new AtomicBoolean();
+    private static final byte[]            wakeupBuf     = new byte[1];
 
-    private static int readUnix (boolean wait) throws IOException {
+    private static int readUnix (long timeout) throws IOException {
+        int n = readUnix(singleCharBuf, 0, 1, timeout);
+        return n < 0 ? n : singleCharBuf[0]; }
+
+    private static int readUnix (char[] dst, int off, int len, long timeout) throws IOException {
         initUnix();
         if (!stdinIsConsole) {                                  // STDIN is not a console
-            return readSingleCharFromByteStream(System.in); }
-        consoleModeAltered = true;
-        setTerminalAttrs(stdinFd, rawTermios);                  // switch off canonical mode, echo and signals
+            if (timeout >= 0 && !waitForInputUnix(timeout)) {
+                return -2; }                                      // no input within the timeout
+            return stdin.read(System.in, dst, off, len, true); }
+        boolean switchMode = !rawModeSession;
+        if (switchMode) {
+            consoleModeAltered = true;
+            setTerminalAttrs(stdinFd, rawTermios); }             // switch off canonical mode, echo and signals
         try {
-            if (!wait && System.in.available() == 0) {
-                return -2; }                                      // no input available
-            return readSingleCharFromByteStream(System.in); }
+            return readKeysUnix(dst, off, len, timeout); }
         finally {
-            setTerminalAttrs(stdinFd, intermediateTermios); }}   // reset some console attributes
+            if (switchMode) {
+                setTerminalAttrs(stdinFd, intermediateTermios); }}} // reset some console attributes
+
+    // Reads console input through the key decoder. The start of a key sequence is held back until the rest
+    // of it arrives, for at most escTimeoutMillis. After that, it is passed on as normal characters.
+    private static int readKeysUnix (char[] dst, int off, int len, long timeout) throws IOException {
+        long deadline = System.nanoTime() + timeout * 1000000L;
+        while (true) {
+            if (keyInPos < keyInLen || keyDecoder.hasReleasedChars()) {
+                int n = keyDecoder.decode(keyInBuf, keyInPos, keyInLen, dst, off, off + len);
+                keyInPos = keyDecoder.position();
+                if (n > 0) {
+                    escDeadlineSet = false;
+                    return n; }}
+            long waitTime = timeout < 0 ? -1 : Math.max(0, (deadline - System.nanoTime() + 999999L) / 1000000L);
+            if (keyDecoder.isHolding()) {
+                if (!escDeadlineSet) {
+                    escDeadline = System.nanoTime() + escTimeoutMillis * 1000000L;
+                    escDeadlineSet = true; }
+                long escWait = Math.max(0, (escDeadline - System.nanoTime() + 999999L) / 1000000L);
+                waitTime = waitTime < 0 ? escWait : Math.min(waitTime, escWait); }
+            if (!waitForInputUnix(waitTime)) {
+                if (keyDecoder.isHolding() && System.nanoTime() - escDeadline >= 0) {
+                    keyDecoder.releaseHeld();                     // no sequence after all, eg. the escape key
+                    continue; }
+                return -2; }                                      // no input available or woken up
+            int n = stdin.read(System.in, keyInBuf, 0, keyInBuf.length, true);
+            if (n == -1) {
+                if (keyDecoder.isHolding()) {
+                    keyDecoder.releaseHeld();
+                    continue; }
+                return -1; }
+            keyInPos = 0;
+            keyInLen = n; }}
+
+    private static void enterRawModeUnix() throws IOException {
+        initUnix();
+        if (!stdinIsConsole) {
+            return; }
+        consoleModeAltered = true;
+        setTerminalAttrs(stdinFd, rawTermios);
+        rawModeSession = true; }
 
     private static Termios getTerminalAttrs (int fd) throws IOException {
         Termios termios = new Termios();
@@ -223,38 +544,64 @@ public class RawConsoleInput {
         catch (LastErrorException e) {
             throw new IOException("tcsetattr() failed.", e); }}
 
-    private static int readSingleCharFromByteStream (InputStream inputStream) throws IOException {
-        byte[] inBuf = new byte[4];
-        int    inLen = 0;
+    // Waits until input is available on STDIN, a negative timeout waits without a limit.
+    // Bytes that were already read by System.in are checked first, as poll() only sees the bytes
+    // that are still pending in the file descriptor.
+    // poll() also returns for EOF and errors, the following read() reports them.
+    // Returns false if the timeout has expired or the wait was ended by wakeup().
+    private static boolean waitForInputUnix (long timeout) throws IOException {
+        if (stdin.hasBufferedInput() || System.in.available() > 0) {
+            return true; }
+        long deadline = System.nanoTime() + timeout * 1000000L;
+        int nfds = wakeupPipe == null ? 1 : 2;
         while (true) {
-            if (inLen >= inBuf.length) {                         // input buffer overflow
-                return invalidKey; }
-            int b = inputStream.read();                          // read next byte
-            if (b == -1) {                                       // EOF
-                return -1; }
-            inBuf[inLen++] = (byte)b;
-            int c = decodeCharFromBytes(inBuf, inLen);
-            if (c != -1) {
-                return c; }}}
-
-    // (This method is synchronized because the charsetDecoder must only be used by a single thread at once.)
-    private static synchronized int decodeCharFromBytes (byte[] inBytes, int inLen) {
-        charsetDecoder.reset();
-        charsetDecoder.onMalformedInput(CodingErrorAction.REPLACE);
-        charsetDecoder.replaceWith(invalidKeyStr);
-        ByteBuffer in = ByteBuffer.wrap(inBytes, 0, inLen);
-        CharBuffer out = CharBuffer.allocate(1);
-        charsetDecoder.decode(in, out, false);
-        if (out.position() == 0) {
-            return -1; }
-        return out.get(0); }
+            int pollTimeout = -1;
+            if (timeout >= 0) {
+                long remaining = Math.max(0, (deadline - System.nanoTime() + 999999L) / 1000000L);
+                pollTimeout = (int)Math.min(remaining, Integer.MAX_VALUE); }
+            for (int i = 0; i < nfds; i++) {
+                pollfds[i].fd = i == 0 ? stdinFd : wakeupPipe[0];
+                pollfds[i].events = LibcDefs.POLLIN;
+                pollfds[i].revents = 0; }
+            int n;
+            try {
+                n = libc.poll(pollfds, nfds, pollTimeout); }
+            catch (LastErrorException e) {
+                if (e.getErrorCode() != LibcDefs.EINTR) {
+                    throw new IOException("poll() failed.", e); }
+                if (pollTimeout == 0) {
+                    return false; }
+                continue; }                                       // interrupted by a signal, wait for the rest of the time
+            if (n == 0) {
+                return false; }                                   // timeout
+            if (nfds == 2 && pollfds[1].revents != 0) {
+                consumeWakeupUnix();
+                return false; }
+            return true; }}
+
+    // Only the first wakeup writes to the pipe until it is consumed, so the pipe never fills up.
+    private static void wakeupUnix() throws IOException {
+        if (wakeupPipe == null || !wakeupPending.compareAndSet(false, true)) {
+            return; }
+        try {
+            libc.write(wakeupPipe[1], new byte[] {1}, 1); }
+        catch (LastErrorException e) {
+            wakeupPending.set(false);
+            throw new IOException("write() to the wakeup pipe failed.", e); }}
+
+    private static void consumeWakeupUnix() throws IOException {
+        wakeupPending.set(false);                                 // a later wakeup writes a new byte
+        try {
+            libc.read(wakeupPipe[0], wakeupBuf, 1); }
+        catch (LastErrorException e) {
+            throw new IOException("read() from the wakeup pipe failed.", e); }}
 
     private static synchronized void initUnix() throws IOException {
         if (initDone) {
             return; }
         libc = (Libc)Native.loadLibrary("c", Libc.class);
         stdinIsConsole = libc.isatty(stdinFd) == 1;
-        charsetDecoder = Charset.defaultCharset().newDecoder();
+        pollfds = (Pollfd[])new Pollfd().toArray(2);           // STDIN and the wakeup pipe, in contiguous memory
         if (stdinIsConsole) {
             originalTermios = getTerminalAttrs(stdinFd);
             rawTermios = new Termios(originalTermios);
@@ -262,6 +609,11 @@ public class RawConsoleInput {
             intermediateTermios = new Termios(rawTermios);
             intermediateTermios.c_lflag |= LibcDefs.ICANON;
             // Canonical mode can be switched off between the read() calls, but echo must remain disabled.
+            int[] fds = new int[2];
+            try {
+                libc.pipe(fds);
+                wakeupPipe = fds; }
+            catch (LastErrorException e) {}                      // reads can not be woken up
             registerShutdownHook(); }
         initDone = true; }
 
@@ -289,7 +641,19 @@ public class RawConsoleInput {
             c_line  = t.c_line;
             filler = t.filler.clone(); }}
 
+    protected static class Pollfd extends Structure {          // poll.h
+        public int      fd;
+        public short    events;
+        public short    revents;
+        public Pollfd() {}                                     // used by toArray()
+        @Override protected List<String> getFieldOrder() {
+            return Arrays.asList("fd", "events", "revents"); }}
+
     private static class LibcDefs {
+        // poll.h
+        static final short POLLIN = 0x0001;
+        // errno.h
+        static final int EINTR   = 4;
         // termios.h
         static final int ISIG    = 0000001;
         static final int ICANON  = 0000002;
@@ -301,7 +665,549 @@ public class RawConsoleInput {
         // termios.h
         int tcgetattr (int fd, Termios termios) throws LastErrorException;
         int tcsetattr (int fd, int opt, Termios termios) throws LastErrorException;
+        // poll.h
+        int poll (Pollfd[] fds, int nfds, int timeout) throws LastErrorException;
         // unistd.h
-        int isatty (int fd); }
+        int isatty (int fd);
+        int pipe (int[] fds) throws LastErrorException;
+        int read (int fd, byte[] buf, int count) throws LastErrorException;
+        int write (int fd, byte[] buf, int count) throws LastErrorException; }
+
+//--- Decoding -----------------------------------------------------------------
+
+    /**
+     * An incremental decoder for converting console input bytes to characters.
+     *
+     * <p>A decoder keeps the state of incomplete characters between calls, so input can be
+     * decoded in arbitrary chunks. It does not allocate any objects while decoding.
+     * A decoder instance must only be used by a single thread at once.
+     *
+     * <p>UTF-8, US-ASCII and ISO-8859-1 are decoded by specialized implementations,
+     * all other charsets fall back to a CharsetDecoder.
+     * Malformed input is decoded to the invalid key code 0xFFFE.
+     */
+    public static abstract class Decoder {
+
+        /** The character that did not fit into the output on the last call or -1. */
+        protected int            pendingChar   = -1;
+        /** The index of the first byte that was not consumed by the last call. */
+        protected int            srcPosition;
+
+        /**
+         * Returns a new decoder for the given charset.
+         */
+        public static Decoder forCharset (Charset charset) {
+            switch (charset.name()) {
+                case "UTF-8":
+                    return new Utf8Decoder();
+                case "US-ASCII":
+                    return new AsciiDecoder();
+                case "ISO-8859-1":
+                    return new Latin1Decoder();
+                default:
+                    return new FallbackDecoder(charset); }}
+
+        /**
+         * Decodes the bytes <code>src[srcOff]</code> to <code>src[srcEnd - 1]</code>
+         * into <code>dst[dstOff]</code> to <code>dst[dstEnd - 1]</code>.
+         *
+         * <p>Decoding stops when all bytes are consumed or the output is full.
+         * Use position() to get the index of the first byte that was not consumed.
+         *
+         * @return
+         *   The number of characters that were stored in <code>dst</code>.
+         */
+        public final int decode (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int dstPos = dstOff;
+            if (pendingChar >= 0 && dstPos < dstEnd) {
+                dst[dstPos++] = (char)pendingChar;
+                pendingChar = -1; }
+            if (pendingChar >= 0) {
+                srcPosition = srcOff;
+                return 0; }
+            return dstPos - dstOff + decodeBytes(src, srcOff, srcEnd, dst, dstPos, dstEnd); }
+
+        // Decodes into the output until it is full or all input is consumed, sets srcPosition
+        // and returns the amount of decoded characters. A character that does not fit anymore
+        // (the second half of a surrogate pair) is stored in pendingChar.
+        protected abstract int decodeBytes (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd);
+
+        /**
+         * Returns the index of the first byte that was not consumed by the last call of decode().
+         */
+        public final int position() {
+            return srcPosition; }
+
+        /**
+         * Returns whether a decoded character is waiting for space in the output.
+         */
+        public final boolean hasPendingChar() {
+            return pendingChar >= 0; }
+
+        /**
+         * Returns whether the decoder has consumed bytes of a character that is not complete yet.
+         */
+        public abstract boolean hasPartialInput();
+
+        /**
+         * Returns whether every byte below 0x80 is decoded to the ASCII character of the same value,
+         * so line feeds can be found in the input before decoding it.
+         */
+        public boolean isAsciiCompatible() {
+            return false; }
+
+        /**
+         * Discards the decoder state.
+         */
+        public void reset() {
+            pendingChar = -1; }}
+
+    // Table driven UTF-8 decoder based on the DFA by Bjoern Hoehrmann (http://bjoern.hoehrmann.de/utf-8/decoder/dfa/).
+    private static final class Utf8Decoder extends Decoder {
+        private static final int    ACCEPT      = 0;
+        private static final int    REJECT      = 12;
+        private static final byte[] byteClasses = new byte[256];
+        private static final byte[] transitions = {
+             0,12,24,36,60,96,84,12,12,12,48,72, 12,12,12,12,12,12,12,12,12,12,12,12,
+            12, 0,12,12,12,12,12, 0,12, 0,12,12, 12,24,12,12,12,12,12,24,12,24,12,12,
+            12,12,12,12,12,12,12,24,12,12,12,12, 12,24,12,12,12,12,12,12,12,24,12,12,
+            12,12,12,12,12,12,12,36,12,36,12,12, 12,36,12,12,12,12,12,36,12,36,12,12,
+            12,36,12,12,12,12,12,12,12,12,12,12 };
+        static {
+            fillByteClass(0x80, 0x8F, 1);
+            fillByteClass(0x90, 0x9F, 9);
+            fillByteClass(0xA0, 0xBF, 7);
+            fillByteClass(0xC0, 0xC1, 8);
+            fillByteClass(0xC2, 0xDF, 2);
+            fillByteClass(0xE0, 0xE0, 10);
+            fillByteClass(0xE1, 0xEC, 3);
+            fillByteClass(0xED, 0xED, 4);
+            fillByteClass(0xEE, 0xEF, 3);
+            fillByteClass(0xF0, 0xF0, 11);
+            fillByteClass(0xF1, 0xF3, 6);
+            fillByteClass(0xF4, 0xF4, 5);
+            fillByteClass(0xF5, 0xFF, 8); }
+
+        private int state = ACCEPT;
+        private int codePoint;
+
+        private static void fillByteClass (int from, int to, int byteClass) {
+            for (int b = from; b <= to; b++) {
+                byteClasses[b] = (byte)byteClass; }}
+
+        @Override protected int decodeBytes (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int srcPos = srcOff;
+            int dstPos = dstOff;
+            while (srcPos < srcEnd && dstPos < dstEnd) {
+                int b = src[srcPos] & 0xFF;
+                if (b < 0x80 && state == ACCEPT) {                // ASCII fast path
+                    dst[dstPos++] = (char)b;
+                    srcPos++;
+                    continue; }
+                int byteClass = byteClasses[b];
+                int prevState = state;
+                codePoint = prevState != ACCEPT ? (b & 0x3F) | (codePoint << 6) : (0xFF >> byteClass) & b;
+                state = transitions[prevState + byteClass];
+                if (state == REJECT) {
+                    state = ACCEPT;
+                    dst[dstPos++] = (char)invalidKey;
+                    if (prevState == ACCEPT) {                    // otherwise this byte may start the next character
+                        srcPos++; }
+                    continue; }
+                srcPos++;
+                if (state != ACCEPT) {                            // incomplete character
+                    continue; }
+                if (codePoint <= 0xFFFF) {
+                    dst[dstPos++] = (char)codePoint; }
+                else {
+                    dst[dstPos++] = Character.highSurrogate(codePoint);
+                    if (dstPos < dstEnd) {
+                        dst[dstPos++] = Character.lowSurrogate(codePoint); }
+                    else {
+                        pendingChar = Character.lowSurrogate(codePoint); }}}
+            srcPosition = srcPos;
+            return dstPos - dstOff; }
+
+        @Override public boolean hasPartialInput() {
+            return state != ACCEPT; }
+
+        @Override public boolean isAsciiCompatible() {
+            return true; }
+
+        @Override public void reset() {
+            super.reset();
+            state = ACCEPT; }}
+
+    private static final class AsciiDecoder extends Decoder {
+        @Override protected int decodeBytes (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int n = Math.min(srcEnd - srcOff, dstEnd - dstOff);
+            for (int i = 0; i < n; i++) {
+                byte b = src[srcOff + i];
+                dst[dstOff + i] = b >= 0 ? (char)b : (char)invalidKey; }
+            srcPosition = srcOff + n;
+            return n; }
+
+        @Override public boolean hasPartialInput() {
+            return false; }
+
+        @Override public boolean isAsciiCompatible() {
+            return true; }}
+
+    private static final class Latin1Decoder extends Decoder {
+        @Override protected int decodeBytes (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int n = Math.min(srcEnd - srcOff, dstEnd - dstOff);
+            for (int i = 0; i < n; i++) {
+                dst[dstOff + i] = (char)(src[srcOff + i] & 0xFF); }
+            srcPosition = srcOff + n;
+            return n; }
+
+        @Override public boolean hasPartialInput() {
+            return false; }
+
+        @Override public boolean isAsciiCompatible() {
+            return true; }}
+
+    // Feeds the bytes one by one into a CharsetDecoder, using preallocated buffers.
+    private static final class FallbackDecoder extends Decoder {
+        private final CharsetDecoder charsetDecoder;
+        private final ByteBuffer     in  = ByteBuffer.allocate(16);
+        private final CharBuffer     out = CharBuffer.allocate(2);
+
+        FallbackDecoder (Charset charset) {
+            charsetDecoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .replaceWith(invalidKeyStr); }
+
+        @Override protected int decodeBytes (byte[] src, int srcOff, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int srcPos = srcOff;
+            int dstPos = dstOff;
+            while (srcPos < srcEnd && dstPos < dstEnd) {
+                in.put(src[srcPos++]);
+                in.flip();
+                out.clear();
+                charsetDecoder.decode(in, out, false);
+                in.compact();
+                out.flip();
+                if (!out.hasRemaining() && !in.hasRemaining()) {  // no character can be this long
+                    in.clear();
+                    charsetDecoder.reset();
+                    dst[dstPos++] = (char)invalidKey;
+                    continue; }
+                while (out.hasRemaining()) {
+                    if (dstPos < dstEnd) {
+                        dst[dstPos++] = out.get(); }
+                    else {
+                        pendingChar = out.get(); }}}
+            srcPosition = srcPos;
+            return dstPos - dstOff; }
+
+        @Override public boolean hasPartialInput() {
+            return in.position() > 0; }
+
+        @Override public void reset() {
+            super.reset();
+            in.clear();
+            charsetDecoder.reset(); }}
+
+//--- Buffered input -----------------------------------------------------------
+
+    /**
+     * A buffer for reading characters from a byte stream, with pushback of characters.
+     *
+     * <p>All bytes that are available are read into the buffer at once and decoded by a Decoder.
+     * readLine() finds the line feed in the undecoded bytes if the charset allows it
+     * (see Decoder.isAsciiCompatible()), so only the bytes of the line itself are decoded.
+     * Bytes of an incomplete character at the end of the input are returned as the invalid key code 0xFFFE.
+     *
+     * <p>The stream is passed to every read, as System.in may be replaced between reads.
+     * Bytes that were already read into the buffer are returned first.
+     * An instance must only be used by a single thread at once.
+     */
+    public static final class BufferedInput {
+
+        private final Decoder  decoder;
+        private final byte[]   inBuf;
+        private int            inPos;
+        private int            inLen;
+        private char[]         pushback     = new char[16];    // stored reversed, the next character is last
+        private int            pushbackLen;
+        private char[]         lineBuf      = new char[256];
+        private int            lineLen;
+        private final char[]   singleChar   = new char[1];
+
+        /**
+         * Creates a buffer decoding the given charset.
+         *
+         * @param bufferSize
+         *   The maximum number of bytes that are read from the stream at once.
+         */
+        public BufferedInput (Charset charset, int bufferSize) {
+            decoder = Decoder.forCharset(charset);
+            inBuf = new byte[bufferSize]; }
+
+        /**
+         * Reads the characters that are currently available, but at least one.
+         *
+         * @param wait
+         *   <code>true</code> to wait until at least one character is available,
+         *   <code>false</code> to return immediately if neither the buffer nor the stream has input.
+         * @return
+         *   -2 if <code>wait</code> is <code>false</code> and no character is available.
+         *   -1 on EOF.
+         *   Otherwise the number of characters stored in <code>dst</code>, at least 1.
+         */
+        public int read (InputStream in, char[] dst, int off, int len, boolean wait) throws IOException {
+            int n = readPushback(dst, off, len);
+            if (n > 0) {
+                return n; }
+            while (true) {
+                n = decoder.decode(inBuf, inPos, inLen, dst, off, off + len);
+                inPos = decoder.position();
+                if (n > 0) {
+                    return n; }
+                if (!wait && in.available() <= 0) {
+                    return -2; }
+                if (!fill(in)) {                                  // EOF
+                    if (decoder.hasPartialInput()) {              // incomplete character at the end of the input
+                        decoder.reset();
+                        dst[off] = (char)invalidKey;
+                        return 1; }
+                    return -1; }}}
+
+        /**
+         * Reads only pushed back characters.
+         *
+         * @return
+         *   The number of characters stored in <code>dst</code>, 0 if no characters were pushed back.
+         */
+        public int readPushback (char[] dst, int off, int len) {
+            int n = 0;
+            while (n < len && pushbackLen > 0) {
+                dst[off + n++] = pushback[--pushbackLen]; }
+            return n; }
+
+        /**
+         * Reads a whole line.
+         *
+         * @return
+         *   The line without the line terminator (<code>\n</code> or <code>\r\n</code>),
+         *   or <code>null</code> on EOF.
+         */
+        public String readLine (InputStream in) throws IOException {
+            lineLen = 0;
+            while (pushbackLen > 0) {                           // pushed back characters come first
+                char c = pushback[--pushbackLen];
+                if (c == '\n') {
+                    return finishLine(); }
+                appendToLine(c); }
+            if (!decoder.isAsciiCompatible()) {
+                return readLineByChar(in); }
+            while (true) {
+                int end = inPos;
+                while (end < inLen && inBuf[end] != '\n') {
+                    end++; }
+                while (true) {                                   // decode up to the line feed
+                    if (lineBuf.length - lineLen < end - inPos + 1) {
+                        lineBuf = Arrays.copyOf(lineBuf, Math.max(lineBuf.length * 2, lineLen + end - inPos + 1)); }
+                    lineLen += decoder.decode(inBuf, inPos, end, lineBuf, lineLen, lineBuf.length);
+                    inPos = decoder.position();
+                    if (inPos == end && !decoder.hasPendingChar()) {
+                        break; }}
+                if (end < inLen) {                               // found the line feed
+                    inPos = end + 1;
+                    if (decoder.hasPartialInput()) {             // incomplete character before the line feed
+                        decoder.reset();
+                        appendToLine((char)invalidKey); }
+                    return finishLine(); }
+                if (!fill(in)) {                                  // EOF
+                    if (decoder.hasPartialInput()) {
+                        decoder.reset();
+                        appendToLine((char)invalidKey); }
+                    return lineLen == 0 ? null : finishLine(); }}}
+
+        // Line feeds can not be found before decoding (eg. UTF-16), so the line is decoded character by character.
+        private String readLineByChar (InputStream in) throws IOException {
+            while (true) {
+                if (read(in, singleChar, 0, 1, true) == -1) {
+                    return lineLen == 0 ? null : finishLine(); }
+                if (singleChar[0] == '\n') {
+                    return finishLine(); }
+                appendToLine(singleChar[0]); }}
+
+        /**
+         * Pushes characters back, so they are returned again by the next reads.
+         * Characters pushed back by a later call are read before characters of earlier calls.
+         */
+        public void unread (char[] src, int off, int len) {
+            if (pushbackLen + len > pushback.length) {
+                pushback = Arrays.copyOf(pushback, Math.max(pushback.length * 2, pushbackLen + len)); }
+            for (int i = off + len - 1; i >= off; i--) {
+                pushback[pushbackLen++] = src[i]; }}
+
+        /**
+         * Returns whether characters or bytes are buffered, so a read does not have to wait for the stream.
+         */
+        public boolean hasBufferedInput() {
+            return pushbackLen > 0 || inPos < inLen || decoder.hasPendingChar(); }
+
+        // Replaces the consumed buffer with the bytes that are available, returns false on EOF.
+        // The decoder keeps the state of incomplete characters, so the buffer can be reused from the start.
+        private boolean fill (InputStream in) throws IOException {
+            int n = in.read(inBuf, 0, inBuf.length);
+            inPos = 0;
+            inLen = Math.max(n, 0);
+            return n >= 0; }
+
+        private void appendToLine (char c) {
+            if (lineLen == lineBuf.length) {
+                lineBuf = Arrays.copyOf(lineBuf, lineLen * 2); }
+            lineBuf[lineLen++] = c; }
+
+        private String finishLine() {
+            int len = lineLen > 0 && lineBuf[lineLen - 1] == '\r' ? lineLen - 1 : lineLen;
+            return new String(lineBuf, 0, len); }}
+
+//--- Key sequences ------------------------------------------------------------
+
+    /**
+     * A decoder for converting the escape sequences of function keys and arrow keys to single key codes.
+     *
+     * <p>Terminals on Unix send these keys as escape sequences (eg. <code>ESC [ A</code> for the up arrow).
+     * They are converted to the key codes the Windows version returns, 0xE000 plus the scan code
+     * (eg. 0xE048 for the up arrow). Recognized are the common xterm, VT and Linux console sequences.
+     * All other characters and unknown sequences are passed through unchanged.
+     *
+     * <p>The decoder is a state machine running on a precompiled transition table.
+     * It holds back the characters of a sequence until the sequence is complete or turns out to be unknown,
+     * so it does not allocate any objects while decoding. If the input stops within a sequence (eg. after
+     * the escape key), releaseHeld() passes the held characters on.
+     * A decoder instance must only be used by a single thread at once.
+     */
+    public static final class KeyDecoder {
+
+        private static final char              ESC           = 27;
+        private static final int               ROOT          = 0;       // no sequence started
+        private static final int               AFTER_ESC     = 1;
+        private static final short[]           transitions;             // state * 128 + char -> next state, 0 for none
+        private static final char[]            stateKeys;               // key code of a complete sequence, 0 otherwise
+        private static final int               maxHeld;
+
+        static {
+            // sequence after ESC, Windows scan code
+            Object[] keys = {
+                "[A", 0x48, "[B", 0x50, "[C", 0x4D, "[D", 0x4B,                              // arrows (xterm)
+                "OA", 0x48, "OB", 0x50, "OC", 0x4D, "OD", 0x4B,                              // arrows (application mode)
+                "[H", 0x47, "[F", 0x4F, "OH", 0x47, "OF", 0x4F,                              // home, end (xterm)
+                "[1~", 0x47, "[4~", 0x4F, "[7~", 0x47, "[8~", 0x4F,                          // home, end (VT, rxvt)
+                "[2~", 0x52, "[3~", 0x53, "[5~", 0x49, "[6~", 0x51,                          // insert, delete, page up, page down
+                "OP", 0x3B, "OQ", 0x3C, "OR", 0x3D, "OS", 0x3E,                              // F1 - F4 (xterm)
+                "[11~", 0x3B, "[12~", 0x3C, "[13~", 0x3D, "[14~", 0x3E,                      // F1 - F4 (rxvt)
+                "[[A", 0x3B, "[[B", 0x3C, "[[C", 0x3D, "[[D", 0x3E, "[[E", 0x3F,             // F1 - F5 (Linux console)
+                "[15~", 0x3F, "[17~", 0x40, "[18~", 0x41, "[19~", 0x42, "[20~", 0x43,        // F5 - F9
+                "[21~", 0x44, "[23~", 0x85, "[24~", 0x86,                                    // F10 - F12
+                "[1;5A", 0x8D, "[1;5B", 0x91, "[1;5C", 0x74, "[1;5D", 0x73,                  // Ctrl + arrows
+                "Oa", 0x8D, "Ob", 0x91, "Oc", 0x74, "Od", 0x73,                              // Ctrl + arrows (rxvt)
+                "[1;5H", 0x77, "[1;5F", 0x75,                                                // Ctrl + home, end
+                "[Z", 0x0F };                                                                // Shift + tab
+            int maxStates = 2;
+            int longest = 0;
+            for (int i = 0; i < keys.length; i += 2) {
+                maxStates += ((String)keys[i]).length();
+                longest = Math.max(longest, ((String)keys[i]).length()); }
+            short[] t = new short[maxStates * 128];
+            char[] k = new char[maxStates];
+            int states = 2;
+            for (int i = 0; i < keys.length; i += 2) {
+                String sequence = (String)keys[i];
+                int state = AFTER_ESC;
+                for (int j = 0; j < sequence.length(); j++) {
+                    int next = t[state * 128 + sequence.charAt(j)];
+                    if (next == 0) {
+                        next = states++;
+                        t[state * 128 + sequence.charAt(j)] = (short)next; }
+                    state = next; }
+                k[state] = (char)(0xE000 + (Integer)keys[i + 1]); }
+            transitions = Arrays.copyOf(t, states * 128);
+            stateKeys = Arrays.copyOf(k, states);
+            maxHeld = longest; }                                 // ESC plus all but the last character
+
+        private int        state;
+        private final char[] held     = new char[maxHeld];
+        private int        heldLen;
+        private final char[] released = new char[maxHeld];       // held characters of an unknown sequence
+        private int        releasedPos;
+        private int        releasedLen;
+        private int        srcPosition;
+
+        /**
+         * Decodes characters, converting key sequences to key codes.
+         *
+         * <p>Stops when all characters are decoded or <code>dst</code> is full.
+         * Use position() to get the index of the next character in <code>src</code>.
+         *
+         * @return
+         *   The number of characters stored in <code>dst</code>.
+         */
+        public int decode (char[] src, int srcPos, int srcEnd, char[] dst, int dstOff, int dstEnd) {
+            int dstPos = dstOff;
+            while (dstPos < dstEnd) {
+                if (releasedPos < releasedLen) {
+                    dst[dstPos++] = released[releasedPos++];
+                    continue; }
+                if (srcPos == srcEnd) {
+                    break; }
+                char c = src[srcPos++];
+                if (state == ROOT) {
+                    if (c == ESC) {
+                        state = AFTER_ESC;
+                        held[heldLen++] = c; }
+                    else {
+                        dst[dstPos++] = c; }
+                    continue; }
+                int next = c < 128 ? transitions[state * 128 + c] : 0;
+                if (next == 0) {                                  // unknown sequence, pass it on
+                    releaseHeld();
+                    srcPos--;                                     // the character may start a new sequence
+                    continue; }
+                if (stateKeys[next] != 0) {                       // complete sequence
+                    dst[dstPos++] = stateKeys[next];
+                    state = ROOT;
+                    heldLen = 0; }
+                else {
+                    state = next;
+                    held[heldLen++] = c; }}
+            srcPosition = srcPos;
+            return dstPos - dstOff; }
+
+        /**
+         * Returns the index of the next undecoded character of the last decode() call.
+         */
+        public int position() {
+            return srcPosition; }
+
+        /**
+         * Returns true if the start of a sequence is held back, waiting for the rest of it.
+         */
+        public boolean isHolding() {
+            return heldLen > 0; }
+
+        /**
+         * Returns true if there are characters that are passed on by the next decode() call
+         * without any input.
+         */
+        public boolean hasReleasedChars() {
+            return releasedPos < releasedLen; }
+
+        /**
+         * Passes the held back start of a sequence on as normal characters with the next decode() call,
+         * eg. if no further input arrives after the escape key.
+         */
+        public void releaseHeld() {
+            System.arraycopy(held, 0, released, 0, heldLen);
+            releasedPos = 0;
+            releasedLen = heldLen;
+            heldLen = 0;
+            state = ROOT; }}
 
-}
\ No newline at end of file
+}
@@ -1,10 +1,16 @@
 package com.kantenkugel.consoleutils;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.List;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -13,107 +19,414 @@ import java.util.function.Function;
  */
 public class AutoCompleter implements Consumer<ConsoleInputEvent> {
     private final Function<String, String[]> optionProvider;
+    private final Function<String, ? extends CompletionIndex> indexProvider;
+    private final Function<String, CompletableFuture<String[]>> asyncOptionProvider;
     private final DependentOptions depOptions;
+    private OptionCache optionCache = null;
+    private Function<String[], ? extends CompletionIndex> indexFactory = PrefixTree::from;
 
     private String result = null;
 
     public AutoCompleter(Function<String, String[]> optionProvider) {
-        this.optionProvider = optionProvider;
-        this.depOptions = null;
+        this(optionProvider, null, null, null);
     }
 
     public AutoCompleter(DependentOptions depOptions) {
-        this.optionProvider = null;
+        this(null, null, null, depOptions);
+    }
+
+    private AutoCompleter(Function<String, String[]> optionProvider, Function<String, ? extends CompletionIndex> indexProvider,
+                          Function<String, CompletableFuture<String[]>> asyncOptionProvider, DependentOptions depOptions) {
+        this.optionProvider = optionProvider;
+        this.indexProvider = indexProvider;
+        this.asyncOptionProvider = asyncOptionProvider;
         this.depOptions = depOptions;
     }
 
+    /**
+     * Creates an AutoCompleter with an option provider that looks up the options asynchronously.
+     * <p>
+     * Typed chars are echoed immediately while the options are looked up. The suggestion for the current word is shown
+     * as soon as the options arrive.
+     * <br>If the previous input changes before the options arrived, the pending future gets cancelled and its result
+     * is ignored.
+     *
+     * @param  asyncOptionProvider
+     *         Function returning the options for a previous input (the input before the word that is currently typed)
+     * @return The new AutoCompleter
+     */
+    public static AutoCompleter async(Function<String, CompletableFuture<String[]>> asyncOptionProvider) {
+        return new AutoCompleter(null, null, asyncOptionProvider, null);
+    }
+
+    /**
+     * Creates an AutoCompleter with a provider of prebuilt option indexes.
+     * <p>
+     * This avoids building an index each time the options are requested,
+     * eg. for dictionaries opened with {@link MappedCompletionIndex#open(java.nio.file.Path)}.
+     *
+     * @param  indexProvider
+     *         Function returning the index of the options for a previous input
+     *         (the input before the word that is currently typed)
+     * @return The new AutoCompleter
+     */
+    public static AutoCompleter indexed(Function<String, ? extends CompletionIndex> indexProvider) {
+        return new AutoCompleter(null, indexProvider, null, null);
+    }
+
+    /**
+     * Enables caching of the options returned by the option provider.
+     * <p>
+     * The options are cached per previous input (the input before the word that is currently typed).
+     * If the cache holds more than {@code maxSize} entries, the least recently used one is evicted.
+     * <br>This has no effect when using {@link DependentOptions}, which cache their options on their own.
+     *
+     * @param  maxSize
+     *         The maximum amount of cached previous inputs. 0 disables the cache
+     * @param  ttl
+     *         The time after which cached options are requested from the option provider again.
+     *         0 or less to keep them until they are evicted
+     * @param  unit
+     *         The unit of {@code ttl}
+     * @return This AutoCompleter for chaining
+     */
+    public AutoCompleter setOptionCache(int maxSize, long ttl, TimeUnit unit) {
+        if(maxSize < 0)
+            throw new IllegalArgumentException("Cache size may not be negative");
+        this.optionCache = maxSize == 0 ? null : new OptionCache(maxSize, ttl > 0 ? unit.toNanos(ttl) : 0);
+        return this;
+    }
+
+    /**
+     * Sets how the options returned by the option provider are indexed for completion.
+     * <p>
+     * By default, the options are stored in a simple prefix tree, which is fast to build.
+     * For huge option sets (eg. file paths or hostnames), {@code CompactCompletionIndex::from} needs far less memory.
+     * <br>This has no effect when using {@link DependentOptions} or prebuilt indexes.
+     *
+     * @param  indexFactory
+     *         Function building the index of an array of options
+     * @return This AutoCompleter for chaining
+     */
+    public AutoCompleter setIndexFactory(Function<String[], ? extends CompletionIndex> indexFactory) {
+        if(indexFactory == null)
+            throw new IllegalArgumentException("Index factory may not be null");
+        this.indexFactory = indexFactory;
+        return this;
+    }
+
+    /**
+     * Returns how often the option cache already contained the options for a previous input.
+     *
+     * @return The amount of cache hits, or 0 if the option cache is disabled
+     */
+    public long getCacheHits() {
+        return optionCache == null ? 0 : optionCache.getHits();
+    }
+
+    /**
+     * Returns how often the option provider had to be called because the options for a previous input were not cached.
+     *
+     * @return The amount of cache misses, or 0 if the option cache is disabled
+     */
+    public long getCacheMisses() {
+        return optionCache == null ? 0 : optionCache.getMisses();
+    }
+
     public String get() throws IOException {
+        TerminalBackend backend = ConsoleUtils.getTerminalBackend();
+        if(!backend.isInteractive()) {
+            //piped input: no suggestions, just the next line
+            return backend.readLine();
+        }
         //prep (cleanup prev invocations)
-        currentAuto = null;
-        lastOptionCallArg = null;
-        //call sync method (will eventually populate result before returning)
-        ConsoleReader.startLoop(this);
+        synchronized(this) {
+            autoEnd = CompletionIndex.NO_STATE;
+            renderer.reset();
+            lastOptionCallArg = null;
+            cursorBufferLength = -1;
+            cancelPendingOptions();
+        }
+        try {
+            //call sync method (will eventually populate result before returning)
+            ConsoleReader.startLoop(this);
+        } catch(UncheckedIOException e) {
+            //thrown by accept, which can not throw the IOException itself
+            throw e.getCause();
+        } finally {
+            synchronized(this) {
+                cancelPendingOptions();
+                lineActive = false;
+            }
+        }
         return result;
     }
 
-    private String currentAuto = null;
-    private int matchLength = 0;
+    //the suggestion currently shown: the index it is from, the state it ends at and the state of the typed part of it
+    private CompletionIndex autoIndex = null;
+    private int autoEnd = CompletionIndex.NO_STATE;
+    private int autoStart = CompletionIndex.NO_STATE;
+
+    //draws the typed text followed by the suggestion, only writing what changed
+    private final LineRenderer renderer = new LineRenderer();
+    private final StringBuilder display = new StringBuilder();
 
     private String lastOptionCallArg = null;
-    private PrefixTree options;
+    private CompletionIndex options;
+
+    //cursor into the options for the word that is currently typed
+    //cursorPath[i] is the state after the first i chars of the word, valid up to matchedDepth
+    private CompletionIndex cursorTree = null;
+    private int[] cursorPath = new int[16];
+    private int cursorBufferLength = -1; //length of the buffer the cursor is in sync with, -1 if out of sync
+    private int wordLength = 0;
+    private int matchedDepth = 0;
+
+    //state for asynchronously provided options
+    private CompletableFuture<String[]> pendingOptions = null;
+    //copy of the buffer as of the last handled input event, as the reading thread changes the live buffer
+    //before calling accept, so it is not guarded by this monitor
+    private final StringBuilder echoedBuffer = new StringBuilder();
+    private boolean lineActive = false;
 
     @Override
-    public void accept(ConsoleInputEvent e) {
+    public synchronized void accept(ConsoleInputEvent e) {
+        try {
+            handleInput(e);
+        } catch(IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        if(lineActive && asyncOptionProvider != null) {
+            echoedBuffer.setLength(0);
+            echoedBuffer.append(e.getCurrentBuffer());
+        }
+    }
+
+    private void handleInput(ConsoleInputEvent e) throws IOException {
+        StringBuilder buffer = e.getCurrentBuffer();
         char addedChar = e.getAddedChar();
         if(addedChar == CharConstants.CHAR_CTRL_C || addedChar == CharConstants.CHAR_CTRL_D
                 || addedChar == CharConstants.CHAR_CTRL_Z) {
             e.cancelLoop();
+            lineActive = false;
             result = null;
             return;
         }
         if(addedChar == '\n') {
-            if(currentAuto != null) {
-                clear(currentAuto.length() - matchLength);
-            }
-            result = e.getCurrentBuffer().substring(0, e.getCurrentBuffer().length() - 1);
+            //the line is submitted without the suggestion
+            autoEnd = CompletionIndex.NO_STATE;
+            render(buffer, buffer.length() - 1);
+            result = buffer.substring(0, buffer.length() - 1);
             e.cancelLoop();
+            lineActive = false;
             return;
         }
-        if(addedChar != CharConstants.CHAR_TAB) {
-            if(addedChar == CharConstants.CHAR_BACKSPACE)
-                System.out.print(CharConstants.CHAR_BACKSPACE + " ");
-            System.out.print(addedChar);
-        }
-        if(addedChar == CharConstants.CHAR_BACKSPACE && currentAuto != null) {
-            matchLength--;
-        } else if(addedChar == CharConstants.CHAR_TAB && currentAuto != null) {
-            String substring = currentAuto.substring(matchLength);
-            System.out.print(substring);
-            e.getCurrentBuffer().replace(e.getCurrentBuffer().length() - 1, e.getCurrentBuffer().length(), substring);
-            currentAuto = null;
-        } else if(currentAuto != null) {
-            matchLength++;
-        }
-        int index = e.getCurrentBuffer().lastIndexOf(" ");
-        String lastWord = e.getCurrentBuffer().substring(index + 1);
-        String nextAuto = null;
-        if(lastWord.length() > 0) {
-            String previousInput = e.getCurrentBuffer().substring(0, Math.max(0, index));
-            if(!previousInput.equals(lastOptionCallArg)) {
-                lastOptionCallArg = previousInput;
-                if(depOptions != null) {
-                    options = depOptions.getTreeForPrevInput(previousInput);
-                } else if(optionProvider != null) {
-                    options = PrefixTree.from(optionProvider.apply(previousInput));
-                }
+        if(CharConstants.isKeyCode(addedChar) || (addedChar == CharConstants.CHAR_TAB && autoEnd == CompletionIndex.NO_STATE)) {
+            //function keys and arrow keys are not part of the input, tab without a suggestion does nothing
+            buffer.setLength(buffer.length() - 1);
+            return;
+        }
+        lineActive = true;
+        if(e.isPaste()) {
+            //single line input, pasted line breaks become spaces
+            for(int i = buffer.length() - e.getPastedText().length(); i < buffer.length(); i++) {
+                if(buffer.charAt(i) == '\n')
+                    buffer.setCharAt(i, ' ');
+            }
+        } else if(addedChar == CharConstants.CHAR_TAB) {
+            buffer.replace(buffer.length() - 1, buffer.length(), getChainText(autoIndex, autoStart, autoEnd));
+        }
+        //a paste only updates the suggestion for the end of it
+        updateSuggestion(buffer, addedChar);
+        render(buffer, buffer.length());
+    }
+
+    private void updateSuggestion(StringBuilder buffer, char addedChar) {
+        if(!advanceCursor(buffer, addedChar))
+            resyncCursor(buffer);
+        CompletionIndex index = cursorTree;
+        autoIndex = index;
+        autoStart = CompletionIndex.NO_STATE;
+        autoEnd = CompletionIndex.NO_STATE;
+        if(wordLength > 0 && matchedDepth == wordLength) {
+            //longest prefix: follow the states as long as there is only one option
+            int start = cursorPath[wordLength];
+            int end = start;
+            while(index.childCount(end) == 1) {
+                end = index.child(end, 0);
+                if(index.isFinal(end))
+                    break;
             }
-            String longestPrefix = options.getLongestPrefix(lastWord);
-            if(longestPrefix != null && !longestPrefix.equals(currentAuto)) {
-                nextAuto = longestPrefix;
-                matchLength = lastWord.length();
-                if(!nextAuto.equals(currentAuto)) {
-                    System.out.print(nextAuto.substring(matchLength));
-                    if(currentAuto != null && currentAuto.length() > nextAuto.length()) {
-                        clear(currentAuto.length() - nextAuto.length());
-                    }
-                    for(int i = 0; i < nextAuto.length() - matchLength; i++) {
-                        System.out.print(CharConstants.CHAR_BACKSPACE);
-                    }
+            if(end != start) {
+                autoStart = start;
+                autoEnd = end;
+            }
+        }
+    }
+
+    //shows the first length chars of the buffer followed by the suggestion, with the cursor between them
+    private void render(CharSequence buffer, int length) throws IOException {
+        display.setLength(0);
+        display.append(buffer, 0, length);
+        if(autoEnd != CompletionIndex.NO_STATE)
+            appendChainText(display, autoIndex, autoStart, autoEnd);
+        renderer.render(display, length);
+    }
+
+    //moves the cursor by the typed or deleted char, returns false if the cursor has to be resynced instead
+    private boolean advanceCursor(StringBuilder buffer, char addedChar) {
+        if(cursorBufferLength < 0 || cursorTree != options || wordLength == 0)
+            return false;
+        int length = buffer.length();
+        if(addedChar == CharConstants.CHAR_BACKSPACE) {
+            if(length != cursorBufferLength - 1)
+                return false;
+            wordLength--;
+            if(matchedDepth > wordLength)
+                matchedDepth = wordLength;
+        } else {
+            if(addedChar == ' ' || length != cursorBufferLength + 1 || buffer.charAt(length - 1) != addedChar)
+                return false;
+            if(matchedDepth == wordLength) {
+                int next = cursorTree.next(cursorPath[matchedDepth], addedChar);
+                if(next != CompletionIndex.NO_STATE) {
+                    ensureCursorCapacity(matchedDepth + 2);
+                    cursorPath[++matchedDepth] = next;
                 }
             }
+            wordLength++;
         }
-        if(nextAuto == null && currentAuto != null) {
-            clear(currentAuto.length() - matchLength);
+        cursorBufferLength = length;
+        return true;
+    }
+
+    //walks the last word of the buffer from the root, looking up the options for the previous input if needed
+    private void resyncCursor(StringBuilder buffer) {
+        int length = buffer.length();
+        int index = buffer.lastIndexOf(" ");
+        cursorBufferLength = length;
+        wordLength = length - index - 1;
+        matchedDepth = 0;
+        if(wordLength == 0) {
+            cursorTree = options;
+            return;
+        }
+        int previousLength = Math.max(0, index);
+        if(!isLastOptionCallArg(buffer, previousLength)) {
+            String previousInput = buffer.substring(0, previousLength);
+            lastOptionCallArg = previousInput;
+            if(depOptions != null) {
+                options = depOptions.getTreeForPrevInput(previousInput);
+            } else if(optionProvider != null || indexProvider != null) {
+                options = getProvidedOptions(previousInput);
+            } else if(asyncOptionProvider != null) {
+                options = requestOptions(previousInput);
+            }
+        }
+        cursorTree = options;
+        ensureCursorCapacity(wordLength + 1);
+        cursorPath[0] = options.root();
+        for(int i = index + 1; i < length; i++) {
+            int next = options.next(cursorPath[matchedDepth], buffer.charAt(i));
+            if(next == CompletionIndex.NO_STATE)
+                break;
+            cursorPath[++matchedDepth] = next;
+        }
+    }
+
+    private boolean isLastOptionCallArg(StringBuilder buffer, int length) {
+        if(lastOptionCallArg == null || lastOptionCallArg.length() != length)
+            return false;
+        for(int i = 0; i < length; i++) {
+            if(lastOptionCallArg.charAt(i) != buffer.charAt(i))
+                return false;
+        }
+        return true;
+    }
+
+    private void ensureCursorCapacity(int capacity) {
+        if(cursorPath.length < capacity)
+            cursorPath = Arrays.copyOf(cursorPath, Math.max(capacity, cursorPath.length * 2));
+    }
+
+    //text of the single-child chain after start, up to (and including) end
+    private static void appendChainText(StringBuilder b, CompletionIndex index, int start, int end) {
+        int current = start;
+        while(current != end) {
+            b.append(index.childChar(current, 0));
+            current = index.child(current, 0);
+        }
+    }
+
+    private static String getChainText(CompletionIndex index, int start, int end) {
+        StringBuilder b = new StringBuilder();
+        appendChainText(b, index, start, end);
+        return b.toString();
+    }
+
+    private CompletionIndex getProvidedOptions(String previousInput) {
+        OptionCache cache = optionCache;
+        if(cache == null)
+            return buildProvidedOptions(previousInput);
+        CompletionIndex tree = cache.get(previousInput);
+        if(tree == null) {
+            tree = buildProvidedOptions(previousInput);
+            cache.put(previousInput, tree);
+        }
+        return tree;
+    }
+
+    private CompletionIndex buildProvidedOptions(String previousInput) {
+        if(indexProvider != null)
+            return indexProvider.apply(previousInput);
+        return indexFactory.apply(optionProvider.apply(previousInput));
+    }
+
+    //returns the options if they are available right away, otherwise an empty tree until they arrive
+    private CompletionIndex requestOptions(String previousInput) {
+        cancelPendingOptions();
+        OptionCache cache = optionCache;
+        CompletionIndex tree = cache == null ? null : cache.get(previousInput);
+        if(tree != null)
+            return tree;
+        CompletableFuture<String[]> future = asyncOptionProvider.apply(previousInput);
+        if(future.isDone() && !future.isCompletedExceptionally()) {
+            tree = indexFactory.apply(future.join());
+            if(cache != null)
+                cache.put(previousInput, tree);
+            return tree;
         }
-        currentAuto = nextAuto;
+        pendingOptions = future;
+        //always async, so the suggestion never gets rendered in the middle of handling an input char
+        future.whenCompleteAsync((opts, error) -> onOptionsArrived(future, previousInput, opts));
+        return PrefixTree.EMPTY;
     }
 
-    private void clear(int amount) {
-        for(int i = 0; i < amount; i++) {
-            System.out.print(" ");
+    private synchronized void onOptionsArrived(CompletableFuture<String[]> future, String previousInput, String[] opts) {
+        if(future != pendingOptions)
+            return; //outdated or cancelled
+        pendingOptions = null;
+        if(opts == null)
+            return; //failed, keep showing no suggestions
+        options = indexFactory.apply(opts);
+        if(optionCache != null)
+            optionCache.put(previousInput, options);
+        if(lineActive) {
+            //only what was echoed, chars the reading thread added since then are not handled yet
+            updateSuggestion(echoedBuffer, '\0');
+            try {
+                render(echoedBuffer, echoedBuffer.length());
+            } catch(IOException e) {
+                //the next echo of the reading thread fails on the same terminal and ends the loop
+            }
         }
-        for(int i = 0; i < amount; i++) {
-            System.out.print(CharConstants.CHAR_BACKSPACE);
+    }
+
+    private void cancelPendingOptions() {
+        if(pendingOptions != null) {
+            CompletableFuture<String[]> future = pendingOptions;
+            pendingOptions = null;
+            future.cancel(true);
         }
     }
 
@@ -121,6 +434,8 @@ public class AutoCompleter implements Consumer<ConsoleInputEvent> {
         private Map<String, DependentOptions> children = new HashMap<>();
         private String[] options = null;
         private boolean multi = false;
+        //built lazily and reset whenever the options of this node change
+        private volatile PrefixTree tree = null;
 
         public DependentOptions markMulti() {
             multi = true;
@@ -130,22 +445,30 @@ public class AutoCompleter implements Consumer<ConsoleInputEvent> {
         public DependentOptions createOption(String key) {
             DependentOptions child = new DependentOptions();
             children.put(key, child);
+            tree = null;
             return child;
         }
 
         public DependentOptions createOptions(String... finalOptions) {
             options = finalOptions;
+            tree = null;
             markMulti();
             return this;
         }
 
         private PrefixTree getTree() {
-            if(options != null)
-                return PrefixTree.from(options);
-            return PrefixTree.from(children.keySet().toArray(new String[0]));
+            PrefixTree tree = this.tree;
+            if(tree == null) {
+                if(options != null)
+                    tree = PrefixTree.from(options);
+                else
+                    tree = PrefixTree.from(children.keySet().toArray(new String[0]));
+                this.tree = tree;
+            }
+            return tree;
         }
 
-        private PrefixTree getTreeForPrevInput(String input) {
+        PrefixTree getTreeForPrevInput(String input) {
             if(input.length() == 0)
                 return getTree();
             String[] split = input.split("\\s+", 2);
@@ -154,71 +477,255 @@ public class AutoCompleter implements Consumer<ConsoleInputEvent> {
             if(child == null) {
                 if(this.multi)
                     return getTree();
-                return new PrefixTree();
+                return PrefixTree.EMPTY;
             }
             return child.getTreeForPrevInput(split.length == 1 ? "" : split[1]);
         }
     }
 
-    private static class PrefixTree {
+    private static class OptionCache {
+        private final int maxSize;
+        private final long ttlNanos;
+        private final Map<String, CacheEntry> entries;
+        private long hits = 0;
+        private long misses = 0;
+
+        OptionCache(int maxSize, long ttlNanos) {
+            this.maxSize = maxSize;
+            this.ttlNanos = ttlNanos;
+            //access ordered, so the eldest entry is the least recently used one
+            this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        }
+
+        synchronized CompletionIndex get(String previousInput) {
+            CacheEntry entry = entries.get(previousInput);
+            if(entry != null && ttlNanos > 0 && System.nanoTime() - entry.created > ttlNanos) {
+                entries.remove(previousInput);
+                entry = null;
+            }
+            if(entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+            return entry.tree;
+        }
+
+        synchronized void put(String previousInput, CompletionIndex tree) {
+            entries.put(previousInput, new CacheEntry(tree, System.nanoTime()));
+            if(entries.size() > maxSize) {
+                Iterator<String> eldest = entries.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+
+        synchronized long getHits() {
+            return hits;
+        }
+
+        synchronized long getMisses() {
+            return misses;
+        }
+
+        private static class CacheEntry {
+            final CompletionIndex tree;
+            final long created;
+
+            CacheEntry(CompletionIndex tree, long created) {
+                this.tree = tree;
+                this.created = created;
+            }
+        }
+    }
+
+    static class PrefixTree implements CompletionIndex {
         private static class Node {
-            final char data;
-            final List<Node> children = new ArrayList<>(3);
+            private static final char[] NO_KEYS = new char[0];
+            private static final Node[] NO_CHILDREN = new Node[0];
+
+            int id;
+            //children sorted by their char, keys[i] is the data of children[i]
+            char[] keys = NO_KEYS;
+            Node[] children = NO_CHILDREN;
+            int size = 0;
             boolean finalNode = false;
 
-            Node(char c) {
-                this.data = c;
+            Node(int id) {
+                this.id = id;
             }
         }
 
+        private static final PrefixTree EMPTY = new PrefixTree();
+        //from this amount of strings on, trees are built in parallel (if there are multiple cores)
+        private static final int PARALLEL_THRESHOLD = 10000;
+
         private PrefixTree() {}
 
-        private Node root = new Node('\0');
+        //all nodes by their id (the state of the node)
+        private Node[] nodes = { new Node(0) };
+        private int nodeCount = 1;
 
-        public String getLongestPrefix(String start) {
-            Node current = getNode(start);
-            if(current == null)
-                return null;
+        int getNodeCount() {
+            return nodeCount;
+        }
 
-            StringBuilder b = new StringBuilder(start);
-            while(current.children.size() == 1) {
-                current = current.children.get(0);
-                b.append(current.data);
-                if(current.finalNode)
-                    break;
-            }
-            return b.toString();
+        @Override
+        public int root() {
+            return 0;
         }
 
-        private Node getNode(String input) {
-            Node current = root;
-            for(char c : input.toCharArray()) {
-                current = getNode(current, c);
-                if(current == null)
-                    return null;
-            }
-            return current;
+        @Override
+        public int next(int state, char c) {
+            Node node = nodes[state];
+            int index = Arrays.binarySearch(node.keys, 0, node.size, c);
+            return index < 0 ? NO_STATE : node.children[index].id;
+        }
+
+        @Override
+        public boolean isFinal(int state) {
+            return nodes[state].finalNode;
+        }
+
+        @Override
+        public int childCount(int state) {
+            return nodes[state].size;
         }
 
-        private static Node getNode(Node current, char next) {
-            return current.children.stream().filter(n -> n.data == next).findAny().orElse(null);
+        @Override
+        public char childChar(int state, int index) {
+            return nodes[state].keys[index];
+        }
+
+        @Override
+        public int child(int state, int index) {
+            return nodes[state].children[index].id;
+        }
+
+        private Node getOrAddChild(Node node, char c) {
+            int index = Arrays.binarySearch(node.keys, 0, node.size, c);
+            if(index >= 0)
+                return node.children[index];
+            index = -(index + 1);
+            if(node.size == node.keys.length) {
+                int capacity = Math.max(2, node.size * 2);
+                node.keys = Arrays.copyOf(node.keys, capacity);
+                node.children = Arrays.copyOf(node.children, capacity);
+            }
+            System.arraycopy(node.keys, index, node.keys, index + 1, node.size - index);
+            System.arraycopy(node.children, index, node.children, index + 1, node.size - index);
+            if(nodeCount == nodes.length)
+                nodes = Arrays.copyOf(nodes, nodeCount * 2);
+            Node child = new Node(nodeCount);
+            nodes[nodeCount++] = child;
+            node.keys[index] = c;
+            node.children[index] = child;
+            node.size++;
+            return child;
         }
 
         public static PrefixTree from(String... strings) {
+            if(strings.length >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1)
+                return fromParallel(strings);
+            return fromSequential(strings);
+        }
+
+        static PrefixTree fromSequential(String[] strings) {
             PrefixTree tree = new PrefixTree();
-            for(String s : strings) {
-                Node current = tree.root;
-                for(char c : s.toCharArray()) {
-                    Node next = getNode(current, c);
-                    if(next == null) {
-                        next = new Node(c);
-                        current.children.add(next);
-                    }
-                    current = next;
+            for(String s : strings)
+                tree.add(s, 0, s.length());
+            return tree;
+        }
+
+        private void add(String s, int from, int to) {
+            Node current = nodes[0];
+            for(int i = from; i < to; i++) {
+                current = getOrAddChild(current, s.charAt(i));
+            }
+            current.finalNode = true;
+        }
+
+        //sorts the input, builds a subtree for each first char on the fork-join pool and attaches them to a new root
+        static PrefixTree fromParallel(String[] strings) {
+            String[] sorted = strings.clone();
+            Arrays.parallelSort(sorted);
+            PrefixTree tree = new PrefixTree();
+            int start = 0;
+            while(start < sorted.length && sorted[start].isEmpty()) {
+                tree.nodes[0].finalNode = true;
+                start++;
+            }
+            //runs of strings with the same first char, runStarts[i] to runStarts[i + 1]
+            int[] runStarts = new int[Math.min(sorted.length - start, Character.MAX_VALUE + 1) + 1];
+            int runs = 0;
+            for(int i = start; i < sorted.length; i++) {
+                if(i == start || sorted[i].charAt(0) != sorted[i - 1].charAt(0))
+                    runStarts[runs++] = i;
+            }
+            runStarts[runs] = sorted.length;
+
+            PrefixTree[] subtrees = new PrefixTree[runs];
+            ForkJoinPool.commonPool().invoke(new SubtreeTask(sorted, runStarts, subtrees, 0, runs));
+
+            //stitch: the subtree roots become the children of the root, renumbering their nodes behind each other
+            Node root = tree.nodes[0];
+            root.keys = new char[runs];
+            root.children = new Node[runs];
+            root.size = runs;
+            int nodeCount = 1;
+            for(PrefixTree subtree : subtrees)
+                nodeCount += subtree.nodeCount;
+            Node[] nodes = Arrays.copyOf(tree.nodes, nodeCount);
+            int offset = 1;
+            for(int i = 0; i < runs; i++) {
+                PrefixTree subtree = subtrees[i];
+                for(int j = 0; j < subtree.nodeCount; j++) {
+                    Node node = subtree.nodes[j];
+                    node.id += offset;
+                    nodes[node.id] = node;
                 }
-                current.finalNode = true;
+                root.keys[i] = sorted[runStarts[i]].charAt(0);
+                root.children[i] = subtree.nodes[0];
+                offset += subtree.nodeCount;
             }
+            tree.nodes = nodes;
+            tree.nodeCount = nodeCount;
             return tree;
         }
+
+        //builds the subtrees of the runs from (inclusive) to to (exclusive), splitting the runs while there are enough
+        private static class SubtreeTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final String[] sorted;
+            private final int[] runStarts;
+            private final PrefixTree[] subtrees;
+            private final int from, to;
+
+            SubtreeTask(String[] sorted, int[] runStarts, PrefixTree[] subtrees, int from, int to) {
+                this.sorted = sorted;
+                this.runStarts = runStarts;
+                this.subtrees = subtrees;
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected void compute() {
+                if(to - from > 1 && runStarts[to] - runStarts[from] > PARALLEL_THRESHOLD / 4) {
+                    int mid = (from + to) >>> 1;
+                    invokeAll(new SubtreeTask(sorted, runStarts, subtrees, from, mid),
+                            new SubtreeTask(sorted, runStarts, subtrees, mid, to));
+                    return;
+                }
+                for(int run = from; run < to; run++) {
+                    //without the first char, which is stored in the root
+                    PrefixTree subtree = new PrefixTree();
+                    for(int i = runStarts[run]; i < runStarts[run + 1]; i++)
+                        subtree.add(sorted[i], 1, sorted[i].length());
+                    subtrees[run] = subtree;
+                }
+            }
+        }
     }
 }
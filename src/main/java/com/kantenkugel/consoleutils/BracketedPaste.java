@@ -0,0 +1,117 @@
+package com.kantenkugel.consoleutils;
+
+/**
+ * Parser for the paste markers a terminal sends in bracketed paste mode.
+ * <p>
+ * Chars are fed one by one with {@link #accept(char)}. Pasted text is collected until the end marker,
+ * everything else is passed through.
+ * <br>A partially matched start marker is held back until it either completes or turns out to be normal input.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+final class BracketedPaste {
+    static final String ENABLE = "\u001B[?2004h";
+    static final String DISABLE = "\u001B[?2004l";
+    static final String START = "\u001B[200~";
+    private static final String END = "\u001B[201~";
+
+    /** The char is normal input */
+    static final int PASS = 0;
+    /** The char is part of a marker or of pasted text */
+    static final int CONSUMED = 1;
+    /** The char completed the end marker, the pasted text is available via {@link #getPastedText()} */
+    static final int FINISHED = 2;
+
+    private final StringBuilder pasted = new StringBuilder();
+    private boolean inPaste = false;
+    //chars of START (outside of a paste) or END (inside of a paste) matched so far
+    private int matched = 0;
+    private int released = 0;
+
+    /**
+     * Processes the next input char.
+     * <br>Before acting on the result, the first {@link #getReleased()} chars of {@link #START} have to be handled
+     * as normal input, as they turned out to be no start marker.
+     *
+     * @param  c
+     *         The input char
+     * @return {@link #PASS}, {@link #CONSUMED} or {@link #FINISHED}
+     */
+    int accept(char c) {
+        released = 0;
+        if(inPaste)
+            return acceptPasted(c);
+        if(c == START.charAt(matched)) {
+            if(++matched == START.length()) {
+                matched = 0;
+                inPaste = true;
+                pasted.setLength(0);
+            }
+            return CONSUMED;
+        }
+        if(matched > 0) {
+            //not a marker after all
+            released = matched;
+            matched = 0;
+            if(c == START.charAt(0)) {
+                matched = 1;
+                return CONSUMED;
+            }
+        }
+        return PASS;
+    }
+
+    private int acceptPasted(char c) {
+        if(c == END.charAt(matched)) {
+            if(++matched == END.length()) {
+                matched = 0;
+                inPaste = false;
+                return FINISHED;
+            }
+            return CONSUMED;
+        }
+        if(matched > 0) {
+            pasted.append(END, 0, matched);
+            matched = 0;
+            if(c == END.charAt(0)) {
+                matched = 1;
+                return CONSUMED;
+            }
+        }
+        pasted.append(c);
+        return CONSUMED;
+    }
+
+    /**
+     * @return The amount of chars of {@link #START} that were held back by the last call and are normal input
+     */
+    int getReleased() {
+        return released;
+    }
+
+    /**
+     * @return Whether the start of a start marker is held back, waiting for more input
+     */
+    boolean isHoldingStart() {
+        return !inPaste && matched > 0;
+    }
+
+    /**
+     * Gives up on a partially matched start marker, eg. because no more input is available.
+     *
+     * @return The amount of chars of {@link #START} that are normal input
+     */
+    int releaseHeld() {
+        int amount = inPaste ? 0 : matched;
+        if(!inPaste)
+            matched = 0;
+        return amount;
+    }
+
+    /**
+     * @return The text of the last finished paste
+     */
+    CharSequence getPastedText() {
+        return pasted;
+    }
+}
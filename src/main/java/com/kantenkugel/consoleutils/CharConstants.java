@@ -6,10 +6,68 @@ package com.kantenkugel.consoleutils;
 public final class CharConstants {
     public static final char CHAR_CTRL_C = (char) 3;
     public static final char CHAR_CTRL_D = (char) 4;
+    public static final char CHAR_CTRL_G = (char) 7;
+    public static final char CHAR_CTRL_R = (char) 18;
     public static final char CHAR_CTRL_Z = (char) 26;
 
     public static final char CHAR_BACKSPACE = '\b';
     public static final char CHAR_TAB = '\t';
+    public static final char CHAR_ESCAPE = (char) 27;
+
+    /**
+     * The added char of {@link ConsoleInputEvent ConsoleInputEvents} for pasted text.
+     * This is a Unicode noncharacter, so it can not be typed.
+     *
+     * @see ConsoleInputEvent#getPastedText()
+     */
+    public static final char CHAR_PASTE = '\uFDD0';
+
+    /*
+        Key codes of function keys and arrow keys: 0xE000 plus the Windows scan code.
+        On Unix, the escape sequences of these keys are converted to the same codes.
+     */
+    public static final char KEY_UP = '\uE048';
+    public static final char KEY_DOWN = '\uE050';
+    public static final char KEY_LEFT = '\uE04B';
+    public static final char KEY_RIGHT = '\uE04D';
+    public static final char KEY_HOME = '\uE047';
+    public static final char KEY_END = '\uE04F';
+    public static final char KEY_PAGE_UP = '\uE049';
+    public static final char KEY_PAGE_DOWN = '\uE051';
+    public static final char KEY_INSERT = '\uE052';
+    public static final char KEY_DELETE = '\uE053';
+    public static final char KEY_CTRL_UP = '\uE08D';
+    public static final char KEY_CTRL_DOWN = '\uE091';
+    public static final char KEY_CTRL_LEFT = '\uE073';
+    public static final char KEY_CTRL_RIGHT = '\uE074';
+    public static final char KEY_CTRL_HOME = '\uE077';
+    public static final char KEY_CTRL_END = '\uE075';
+    public static final char KEY_SHIFT_TAB = '\uE00F';
+    public static final char KEY_F1 = '\uE03B';
+    public static final char KEY_F2 = '\uE03C';
+    public static final char KEY_F3 = '\uE03D';
+    public static final char KEY_F4 = '\uE03E';
+    public static final char KEY_F5 = '\uE03F';
+    public static final char KEY_F6 = '\uE040';
+    public static final char KEY_F7 = '\uE041';
+    public static final char KEY_F8 = '\uE042';
+    public static final char KEY_F9 = '\uE043';
+    public static final char KEY_F10 = '\uE044';
+    public static final char KEY_F11 = '\uE085';
+    public static final char KEY_F12 = '\uE086';
+
+    /**
+     * Returns whether the given char is the key code of a function key or arrow key (like {@link #KEY_UP})
+     * instead of a typed char.
+     *
+     * @param  c
+     *         The char to check
+     * @return Whether the char is a key code
+     */
+    public static boolean isKeyCode(char c) {
+        //all codes the Windows console input can return, see RawConsoleInput
+        return c >= '\uE000' && c <= '\uF8FF';
+    }
 
     private CharConstants() {}
 }
@@ -0,0 +1,551 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A persistent history of entered commands, stored in an append-only log file.
+ * <p>
+ * The log and an index of the entry offsets (stored next to the log, with {@code .idx} appended to its name)
+ * are memory mapped. Opening only checks their headers, so a history of any size is available instantly,
+ * entries are read from the mapping when they are accessed.
+ * <br>Each added entry is written to the mapped files right away, so it survives a crash of the application.
+ * If the index does not match the log (eg. it got deleted), it is rebuilt from the log when opening.
+ * <p>
+ * Entries can be searched like with Ctrl+R in a shell, see {@link #search()}.
+ * <p>
+ * Multiple histories may use the same files at once, also in different processes (eg. several consoles).
+ * Every {@link #add(CharSequence) add} locks the log file, picks up the entries the others added meanwhile
+ * and appends behind them, so no entry gets lost.
+ * Entries of the others are also picked up by {@link #refresh()} and {@link #search()}.
+ * <p>
+ * File layout of the log (big endian):
+ * <pre>
+ * int     magic ("CHLG")
+ * int     version
+ * int     used size in bytes (header included)
+ * entries:
+ *   int     length in chars
+ *   char[]  chars
+ * </pre>
+ * File layout of the index (big endian):
+ * <pre>
+ * int     magic ("CHIX")
+ * int     version
+ * int     entry count
+ * int[]   offset of each entry in the log
+ * </pre>
+ * The files may be longer than their used size, as they grow in steps.
+ * <br>All methods are thread safe.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class CommandHistory implements Closeable {
+    static final int LOG_MAGIC = 0x43484C47; //CHLG
+    static final int INDEX_MAGIC = 0x43484958; //CHIX
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int USED_POSITION = 8;
+    private static final int INITIAL_LOG_CAPACITY = 64 * 1024;
+    private static final int INITIAL_INDEX_CAPACITY = 4 * 1024;
+
+    //file locks are held by the whole process, so histories of the same file in this process also use one of these
+    private static final ConcurrentMap<Path, ReentrantLock> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path file;
+    private final FileChannel logChannel;
+    private final FileChannel indexChannel;
+    private final ReentrantLock processLock;
+    private MappedByteBuffer log;
+    private MappedByteBuffer index;
+    private int logEnd;
+    private int size;
+    private boolean closed = false;
+
+    private CommandHistory(Path file, FileChannel logChannel, FileChannel indexChannel) throws IOException {
+        this.file = file;
+        this.logChannel = logChannel;
+        this.indexChannel = indexChannel;
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(file.toRealPath(), path -> new ReentrantLock());
+    }
+
+    /**
+     * Opens the history stored in the given file, creating it if it does not exist yet.
+     * <br>The history has to be {@link #close() closed} to release the files.
+     *
+     * @param  file
+     *         The log file of the history
+     * @return The opened history
+     *
+     * @throws IOException
+     *         If the files could not be opened or the log is no valid history file
+     */
+    public static CommandHistory open(Path file) throws IOException {
+        Path indexFile = file.resolveSibling(file.getFileName() + ".idx");
+        FileChannel logChannel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE);
+        FileChannel indexChannel = null;
+        try {
+            indexChannel = FileChannel.open(indexFile, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE);
+            CommandHistory history = new CommandHistory(file, logChannel, indexChannel);
+            FileLock lock = history.lockFiles();
+            try {
+                history.load();
+            } finally {
+                history.unlockFiles(lock);
+            }
+            return history;
+        } catch(IOException | RuntimeException e) {
+            logChannel.close();
+            if(indexChannel != null)
+                indexChannel.close();
+            throw e;
+        }
+    }
+
+    //only called with the files locked
+    private void load() throws IOException {
+        long logSize = logChannel.size();
+        if(logSize == 0) {
+            log = map(logChannel, INITIAL_LOG_CAPACITY);
+            log.putInt(0, LOG_MAGIC).putInt(4, VERSION).putInt(USED_POSITION, HEADER_SIZE);
+        } else {
+            if(logSize < HEADER_SIZE || logSize > Integer.MAX_VALUE)
+                throw new IOException("Invalid history file size: " + logSize);
+            log = map(logChannel, (int) logSize);
+            if(log.getInt(0) != LOG_MAGIC)
+                throw new IOException("Not a history file: " + file);
+            int version = log.getInt(4);
+            if(version != VERSION)
+                throw new IOException("Unsupported history version " + version + ": " + file);
+        }
+        long indexSize = indexChannel.size();
+        if(indexSize >= HEADER_SIZE && indexSize <= Integer.MAX_VALUE)
+            index = map(indexChannel, (int) indexSize);
+        else
+            index = map(indexChannel, INITIAL_INDEX_CAPACITY);
+        if(index.getInt(0) != INDEX_MAGIC || index.getInt(4) != VERSION)
+            //rebuilt by sync, as it does not match the log
+            index.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(USED_POSITION, 0);
+        sync();
+    }
+
+    //picks up the entries added through other histories of the same files, only called with the files locked
+    private void sync() throws IOException {
+        int used = log.getInt(USED_POSITION);
+        if(used > log.capacity()) {
+            //the file was grown by another history
+            long logSize = logChannel.size();
+            if(used > logSize)
+                throw new IOException("Corrupt history file: " + file);
+            log = map(logChannel, (int) logSize);
+        }
+        if(used < HEADER_SIZE)
+            throw new IOException("Corrupt history file: " + file);
+        logEnd = used;
+        size = index.getInt(USED_POSITION);
+        long indexEnd = HEADER_SIZE + size * 4L;
+        if(size >= 0 && indexEnd > index.capacity() && indexEnd <= indexChannel.size())
+            index = map(indexChannel, (int) indexChannel.size());
+        if(!isIndexValid())
+            rebuildIndex();
+    }
+
+    //the last indexed entry has to end where the log ends, which is only checked in O(1)
+    private boolean isIndexValid() {
+        if(size < 0 || HEADER_SIZE + size * 4L > index.capacity())
+            return false;
+        if(size == 0)
+            return logEnd == HEADER_SIZE;
+        int offset = index.getInt(HEADER_SIZE + (size - 1) * 4);
+        return offset >= HEADER_SIZE && offset <= logEnd - 4 && entryEnd(offset) == logEnd;
+    }
+
+    private void rebuildIndex() throws IOException {
+        index.putInt(0, INDEX_MAGIC).putInt(4, VERSION).putInt(USED_POSITION, 0);
+        size = 0;
+        int offset = HEADER_SIZE;
+        while(offset <= logEnd - 4) {
+            int length = log.getInt(offset);
+            if(length < 0 || offset + 4 + length * 2L > logEnd)
+                break;
+            addOffset(offset);
+            offset = entryEnd(offset);
+        }
+        if(offset != logEnd) {
+            //a partly written entry at the end is dropped
+            logEnd = offset;
+            log.putInt(USED_POSITION, logEnd);
+        }
+    }
+
+    /**
+     * Adds an entry to the end of the history.
+     * <br>Empty entries and entries that equal the previous one are skipped.
+     *
+     * @param  entry
+     *         The entered command
+     * @return Whether the entry was added
+     *
+     * @throws IOException
+     *         If the files could not grow
+     * @throws IllegalStateException
+     *         If the history was closed
+     */
+    public synchronized boolean add(CharSequence entry) throws IOException {
+        checkOpen();
+        if(entry.length() == 0)
+            return false;
+        FileLock lock = lockFiles();
+        try {
+            sync();
+            return append(entry);
+        } finally {
+            unlockFiles(lock);
+        }
+    }
+
+    //only called with the files locked
+    private boolean append(CharSequence entry) throws IOException {
+        int length = entry.length();
+        if(size > 0 && equalsEntry(size - 1, entry))
+            return false;
+        long end = logEnd + 4 + length * 2L;
+        if(end > Integer.MAX_VALUE)
+            throw new IOException("History file is full");
+        if(end > log.capacity())
+            log = map(logChannel, grow(log.capacity(), end));
+        int offset = logEnd;
+        log.putInt(offset, length);
+        for(int i = 0; i < length; i++)
+            log.putChar(offset + 4 + i * 2, entry.charAt(i));
+        //the used size is updated last, so a crash while writing leaves the previous state
+        logEnd = (int) end;
+        log.putInt(USED_POSITION, logEnd);
+        addOffset(offset);
+        return true;
+    }
+
+    private void addOffset(int offset) throws IOException {
+        long end = HEADER_SIZE + (size + 1L) * 4;
+        if(end > Integer.MAX_VALUE)
+            throw new IOException("History index is full");
+        if(end > index.capacity())
+            index = map(indexChannel, grow(index.capacity(), end));
+        index.putInt(HEADER_SIZE + size * 4, offset);
+        index.putInt(USED_POSITION, ++size);
+    }
+
+    /**
+     * Picks up the entries that were added through other histories of the same files since the last
+     * {@link #add(CharSequence) add} or refresh.
+     *
+     * @throws IOException
+     *         If the files could not be read
+     * @throws IllegalStateException
+     *         If the history was closed
+     */
+    public synchronized void refresh() throws IOException {
+        checkOpen();
+        FileLock lock = lockFiles();
+        try {
+            sync();
+        } finally {
+            unlockFiles(lock);
+        }
+    }
+
+    /**
+     * @return The amount of entries, as of the last {@link #add(CharSequence) add} or {@link #refresh() refresh}
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns an entry of the history.
+     *
+     * @param  i
+     *         The index of the entry, from {@code 0} (the oldest) to {@code size() - 1} (the most recent)
+     * @return The entry
+     *
+     * @throws IndexOutOfBoundsException
+     *         If there is no entry with the given index
+     * @throws IllegalStateException
+     *         If the history was closed
+     */
+    public synchronized String get(int i) {
+        checkOpen();
+        if(i < 0 || i >= size)
+            throw new IndexOutOfBoundsException("Entry " + i + " outside of history with size " + size);
+        int offset = offset(i);
+        char[] chars = new char[log.getInt(offset)];
+        for(int j = 0; j < chars.length; j++)
+            chars[j] = log.getChar(offset + 4 + j * 2);
+        return new String(chars);
+    }
+
+    /**
+     * Starts a reverse search through the entries that exist at this time, from the most recent to the oldest.
+     * <br>Entries added through other histories of the same files are {@link #refresh() picked up} first.
+     *
+     * @return The new search, with an empty query
+     *
+     * @throws IOException
+     *         If the files could not be read
+     * @throws IllegalStateException
+     *         If the history was closed
+     */
+    public synchronized Search search() throws IOException {
+        refresh();
+        return new Search(size);
+    }
+
+    /**
+     * Writes all changes to the storage device and releases the files.
+     * <br>Closing an already closed history has no effect.
+     *
+     * @throws IOException
+     *         If the files could not be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            log.force();
+            index.force();
+        } finally {
+            try {
+                logChannel.close();
+            } finally {
+                indexChannel.close();
+            }
+        }
+    }
+
+    //locks the files against other processes and other histories of the same files in this process
+    private FileLock lockFiles() throws IOException {
+        processLock.lock();
+        try {
+            return logChannel.lock();
+        } catch(IOException | RuntimeException e) {
+            processLock.unlock();
+            throw e;
+        }
+    }
+
+    private void unlockFiles(FileLock lock) throws IOException {
+        try {
+            lock.release();
+        } finally {
+            processLock.unlock();
+        }
+    }
+
+    private void checkOpen() {
+        if(closed)
+            throw new IllegalStateException("History is closed");
+    }
+
+    private int offset(int i) {
+        return index.getInt(HEADER_SIZE + i * 4);
+    }
+
+    private int entryEnd(int offset) {
+        return offset + 4 + log.getInt(offset) * 2;
+    }
+
+    private boolean equalsEntry(int i, CharSequence s) {
+        int offset = offset(i);
+        if(log.getInt(offset) != s.length())
+            return false;
+        for(int j = 0; j < s.length(); j++) {
+            if(log.getChar(offset + 4 + j * 2) != s.charAt(j))
+                return false;
+        }
+        return true;
+    }
+
+    private boolean containsQuery(int i, CharSequence query) {
+        int queryLength = query.length();
+        if(queryLength == 0)
+            return true;
+        int start = offset(i) + 4;
+        int last = start + (log.getInt(start - 4) - queryLength) * 2;
+        char first = query.charAt(0);
+        for(int pos = start; pos <= last; pos += 2) {
+            if(log.getChar(pos) != first)
+                continue;
+            int j = 1;
+            while(j < queryLength && log.getChar(pos + j * 2) == query.charAt(j))
+                j++;
+            if(j == queryLength)
+                return true;
+        }
+        return false;
+    }
+
+    //mapping beyond the end of the file extends it
+    private static MappedByteBuffer map(FileChannel channel, int capacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    private static int grow(int capacity, long needed) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(capacity * 2L, needed));
+    }
+
+    /**
+     * An incremental reverse substring search through a {@link CommandHistory}, like Ctrl+R in a shell.
+     * <p>
+     * Entries are only scanned as far as needed to find the requested match.
+     * If the query is extended, only the matches found so far are checked again instead of the whole history,
+     * so every key stroke stays cheap even with millions of entries.
+     * <br>Changing the query in any other way (eg. removing chars) restarts the search from the most recent entry.
+     */
+    public final class Search {
+        //entries below scanEnd were not scanned yet
+        private final int start;
+        private int scanEnd;
+        private final StringBuilder query = new StringBuilder();
+        //indexes of the matching entries, most recent first
+        private int[] matches = new int[16];
+        private int matchCount = 0;
+        private int selected = 0;
+
+        private Search(int start) {
+            this.start = start;
+            this.scanEnd = start;
+        }
+
+        /**
+         * @return The current query
+         */
+        public CharSequence getQuery() {
+            return query;
+        }
+
+        /**
+         * Adds a char to the query, only keeping the matches that also contain it.
+         * <br>The most recent match becomes the selected one.
+         *
+         * @param  c
+         *         The typed char
+         * @return Whether there is a match for the new query
+         */
+        public boolean append(char c) {
+            synchronized(CommandHistory.this) {
+                query.append(c);
+                return narrow();
+            }
+        }
+
+        /**
+         * Replaces the query. If the new query contains the current one, the matches are narrowed down,
+         * otherwise the search restarts.
+         * <br>The most recent match becomes the selected one.
+         *
+         * @param  newQuery
+         *         The new query
+         * @return Whether there is a match for the new query
+         */
+        public boolean setQuery(CharSequence newQuery) {
+            synchronized(CommandHistory.this) {
+                boolean contained = newQuery.toString().contains(query);
+                query.setLength(0);
+                query.append(newQuery);
+                if(contained)
+                    return narrow();
+                matchCount = 0;
+                scanEnd = start;
+                selected = 0;
+                return findMatch(0);
+            }
+        }
+
+        /**
+         * Selects the next older match, eg. when Ctrl+R is pressed again.
+         *
+         * @return Whether there was an older match. If not, the selection is not changed
+         */
+        public boolean older() {
+            synchronized(CommandHistory.this) {
+                if(!findMatch(selected + 1))
+                    return false;
+                selected++;
+                return true;
+            }
+        }
+
+        /**
+         * Selects the previous, more recent match again.
+         *
+         * @return Whether there was a more recent match. If not, the selection is not changed
+         */
+        public boolean newer() {
+            synchronized(CommandHistory.this) {
+                if(selected == 0 || matchCount == 0)
+                    return false;
+                selected--;
+                return true;
+            }
+        }
+
+        /**
+         * @return The index of the selected matching entry, or {@code -1} if there is no match
+         */
+        public int getMatchIndex() {
+            synchronized(CommandHistory.this) {
+                return findMatch(selected) ? matches[selected] : -1;
+            }
+        }
+
+        /**
+         * @return The selected matching entry, or {@code null} if there is no match
+         */
+        public String getMatch() {
+            synchronized(CommandHistory.this) {
+                int i = getMatchIndex();
+                return i < 0 ? null : get(i);
+            }
+        }
+
+        //keeps the matches that contain the extended query, entries that were not scanned yet stay unscanned
+        private boolean narrow() {
+            checkOpen();
+            int kept = 0;
+            for(int i = 0; i < matchCount; i++) {
+                if(containsQuery(matches[i], query))
+                    matches[kept++] = matches[i];
+            }
+            matchCount = kept;
+            selected = 0;
+            return findMatch(0);
+        }
+
+        //scans older entries until the match with the given position is found
+        private boolean findMatch(int n) {
+            checkOpen();
+            while(matchCount <= n && scanEnd > 0) {
+                int i = --scanEnd;
+                if(containsQuery(i, query)) {
+                    if(matchCount == matches.length)
+                        matches = Arrays.copyOf(matches, matchCount * 2);
+                    matches[matchCount++] = i;
+                }
+            }
+            return matchCount > n;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A memory efficient {@link CompletionIndex} for huge option sets.
+ * <p>
+ * The options are stored as a minimal acyclic automaton, which shares common suffixes as well as common prefixes
+ * (eg. all hostnames ending in {@code .example.com} share the states for that suffix).
+ * <br>The automaton is kept in a few flat primitive arrays instead of one object per char.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class CompactCompletionIndex implements CompletionIndex {
+    //edges of state s are at edgeStart[s] (inclusive) to edgeStart[s + 1] (exclusive), sorted by char
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final long[] finalStates;
+
+    private CompactCompletionIndex(int[] edgeStart, char[] edgeChars, int[] edgeTargets, long[] finalStates) {
+        this.edgeStart = edgeStart;
+        this.edgeChars = edgeChars;
+        this.edgeTargets = edgeTargets;
+        this.finalStates = finalStates;
+    }
+
+    /**
+     * Builds a new index of the given options.
+     *
+     * @param  options
+     *         The options to index. May contain duplicates and does not have to be sorted
+     * @return The new index
+     */
+    public static CompactCompletionIndex from(String... options) {
+        String[] sorted = options.clone();
+        Arrays.sort(sorted);
+        return new Builder().build(sorted);
+    }
+
+    @Override
+    public int root() {
+        return 0;
+    }
+
+    @Override
+    public int next(int state, char c) {
+        int index = Arrays.binarySearch(edgeChars, edgeStart[state], edgeStart[state + 1], c);
+        return index < 0 ? NO_STATE : edgeTargets[index];
+    }
+
+    @Override
+    public boolean isFinal(int state) {
+        return (finalStates[state >>> 6] & (1L << state)) != 0;
+    }
+
+    @Override
+    public int childCount(int state) {
+        return edgeStart[state + 1] - edgeStart[state];
+    }
+
+    @Override
+    public char childChar(int state, int index) {
+        return edgeChars[edgeStart[state] + index];
+    }
+
+    @Override
+    public int child(int state, int index) {
+        return edgeTargets[edgeStart[state] + index];
+    }
+
+    /**
+     * @return The amount of states of the automaton
+     */
+    public int getStateCount() {
+        return edgeStart.length - 1;
+    }
+
+    /**
+     * @return The amount of edges (transitions) of the automaton
+     */
+    public int getEdgeCount() {
+        return edgeChars.length;
+    }
+
+    /**
+     * Returns the approximate heap memory used by this index, including array headers.
+     *
+     * @return The memory footprint in bytes
+     */
+    public long getMemoryFootprint() {
+        return 16 /* object */ + arraySize(edgeStart.length, 4) + arraySize(edgeChars.length, 2)
+                + arraySize(edgeTargets.length, 4) + arraySize(finalStates.length, 8);
+    }
+
+    /**
+     * Writes this index to a file, which can later be opened with {@link MappedCompletionIndex#open(Path)}.
+     * <br>An existing file is replaced.
+     *
+     * @param  file
+     *         The file to write to
+     *
+     * @throws IOException
+     *         If the file could not be written
+     */
+    public void writeTo(Path file) throws IOException {
+        int stateCount = getStateCount();
+        int edgeCount = getEdgeCount();
+        ByteBuffer buffer = ByteBuffer.allocate(MappedCompletionIndex.getFileSize(stateCount, edgeCount));
+        buffer.putInt(MappedCompletionIndex.MAGIC).putInt(MappedCompletionIndex.VERSION)
+                .putInt(stateCount).putInt(edgeCount);
+        buffer.asLongBuffer().put(finalStates);
+        buffer.position(buffer.position() + finalStates.length * 8);
+        buffer.asIntBuffer().put(edgeStart);
+        buffer.position(buffer.position() + edgeStart.length * 4);
+        buffer.asIntBuffer().put(edgeTargets);
+        buffer.position(buffer.position() + edgeTargets.length * 4);
+        buffer.asCharBuffer().put(edgeChars);
+        buffer.clear();
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while(buffer.hasRemaining())
+                channel.write(buffer);
+        }
+    }
+
+    private static long arraySize(int length, int elementSize) {
+        //16 bytes header, padded to 8 bytes
+        return (16 + (long) length * elementSize + 7) & ~7L;
+    }
+
+    //Incremental construction of a minimal automaton from sorted input (Daciuk et al.)
+    private static final class Builder {
+        private final Map<State, State> register = new HashMap<>();
+        private State[] path = new State[16];
+        private int stateCount = 1;
+
+        CompactCompletionIndex build(String[] sorted) {
+            State root = new State();
+            path[0] = root;
+            String previous = "";
+            for(String option : sorted) {
+                if(option.equals(previous) && option.length() > 0)
+                    continue;
+                int common = 0;
+                int max = Math.min(previous.length(), option.length());
+                while(common < max && previous.charAt(common) == option.charAt(common))
+                    common++;
+                minimize(previous.length(), common);
+                if(path.length <= option.length())
+                    path = Arrays.copyOf(path, Math.max(path.length * 2, option.length() + 1));
+                for(int i = common; i < option.length(); i++) {
+                    State next = new State();
+                    stateCount++;
+                    path[i].addEdge(option.charAt(i), next);
+                    path[i + 1] = next;
+                }
+                path[option.length()].isFinal = true;
+                previous = option;
+            }
+            minimize(previous.length(), 0);
+            return flatten(root);
+        }
+
+        //replaces the states of the previous option below depth with equivalent registered ones
+        private void minimize(int from, int depth) {
+            for(int i = from; i > depth; i--) {
+                State child = path[i];
+                State registered = register.putIfAbsent(child, child);
+                if(registered != null) {
+                    path[i - 1].replaceLastTarget(registered);
+                    stateCount--;
+                }
+            }
+        }
+
+        private CompactCompletionIndex flatten(State root) {
+            int[] edgeStart = new int[stateCount + 1];
+            long[] finalStates = new long[(stateCount + 63) >>> 6];
+            int edgeCount = 0;
+            //assign ids breadth first, so the root gets 0
+            State[] ordered = new State[stateCount];
+            Deque<State> queue = new ArrayDeque<>();
+            root.id = 0;
+            queue.add(root);
+            int nextId = 1;
+            int index = 0;
+            while(!queue.isEmpty()) {
+                State state = queue.poll();
+                ordered[index++] = state;
+                edgeCount += state.size;
+                for(int i = 0; i < state.size; i++) {
+                    State target = state.targets[i];
+                    if(target.id < 0) {
+                        target.id = nextId++;
+                        queue.add(target);
+                    }
+                }
+            }
+            char[] edgeChars = new char[edgeCount];
+            int[] edgeTargets = new int[edgeCount];
+            int edge = 0;
+            for(int id = 0; id < stateCount; id++) {
+                State state = ordered[id];
+                edgeStart[id] = edge;
+                if(state.isFinal)
+                    finalStates[id >>> 6] |= 1L << id;
+                for(int i = 0; i < state.size; i++) {
+                    edgeChars[edge] = state.chars[i];
+                    edgeTargets[edge] = state.targets[i].id;
+                    edge++;
+                }
+            }
+            edgeStart[stateCount] = edge;
+            return new CompactCompletionIndex(edgeStart, edgeChars, edgeTargets, finalStates);
+        }
+    }
+
+    //mutable state during construction. Equality is structural, with targets compared by identity
+    //(targets are already minimized when their parent gets registered)
+    private static final class State {
+        private static final char[] NO_CHARS = new char[0];
+        private static final State[] NO_TARGETS = new State[0];
+
+        char[] chars = NO_CHARS;
+        State[] targets = NO_TARGETS;
+        int size = 0;
+        boolean isFinal = false;
+        int id = -1;
+
+        void addEdge(char c, State target) {
+            if(size == chars.length) {
+                int capacity = Math.max(2, size * 2);
+                chars = Arrays.copyOf(chars, capacity);
+                targets = Arrays.copyOf(targets, capacity);
+            }
+            chars[size] = c;
+            targets[size] = target;
+            size++;
+        }
+
+        void replaceLastTarget(State target) {
+            targets[size - 1] = target;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+            if(!(o instanceof State))
+                return false;
+            State other = (State) o;
+            if(isFinal != other.isFinal || size != other.size)
+                return false;
+            for(int i = 0; i < size; i++) {
+                if(chars[i] != other.chars[i] || targets[i] != other.targets[i])
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = isFinal ? 1 : 0;
+            for(int i = 0; i < size; i++)
+                hash = 31 * (31 * hash + chars[i]) + System.identityHashCode(targets[i]);
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.kantenkugel.consoleutils;
+
+/**
+ * An immutable set of completion options that can be walked char by char.
+ * <p>
+ * Positions within the index are identified by int states. {@link #root()} is the state before the first char,
+ * {@link #next(int, char)} moves on by one char.
+ * The children of a state are sorted by their char.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public interface CompletionIndex {
+    /**
+     * Returned by {@link #next(int, char)} if no option continues with the given char.
+     */
+    int NO_STATE = -1;
+
+    /**
+     * @return The state before the first char of all options
+     */
+    int root();
+
+    /**
+     * @param  state
+     *         The current state
+     * @param  c
+     *         The next char
+     * @return The state after {@code c}, or {@link #NO_STATE} if no option continues with {@code c}
+     */
+    int next(int state, char c);
+
+    /**
+     * @param  state
+     *         The state to check
+     * @return Whether an option ends at this state
+     */
+    boolean isFinal(int state);
+
+    /**
+     * @param  state
+     *         The state to check
+     * @return The amount of different chars options can continue with after this state
+     */
+    int childCount(int state);
+
+    /**
+     * @param  state
+     *         The parent state
+     * @param  index
+     *         The index of the child, from 0 (inclusive) to {@link #childCount(int)} (exclusive)
+     * @return The char leading to the child
+     */
+    char childChar(int state, int index);
+
+    /**
+     * @param  state
+     *         The parent state
+     * @param  index
+     *         The index of the child, from 0 (inclusive) to {@link #childCount(int)} (exclusive)
+     * @return The state of the child
+     */
+    int child(int state, int index);
+
+    /**
+     * Returns the longest string starting with {@code start} that all options starting with {@code start} share.
+     * <br>The result stops at the first option ending after {@code start}.
+     *
+     * @param  start
+     *         The input to complete
+     * @return The longest common prefix, or {@code null} if no option starts with {@code start}
+     */
+    default String getLongestPrefix(String start) {
+        int current = root();
+        for(int i = 0; i < start.length() && current != NO_STATE; i++)
+            current = next(current, start.charAt(i));
+        if(current == NO_STATE)
+            return null;
+
+        StringBuilder b = new StringBuilder(start);
+        while(childCount(current) == 1) {
+            b.append(childChar(current, 0));
+            current = child(current, 0);
+            if(isFinal(current))
+                break;
+        }
+        return b.toString();
+    }
+}
@@ -0,0 +1,158 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * A single input loop that owns the terminal and passes its events to a stack of handlers.
+ * <p>
+ * Only the handler on top of the stack receives events. Pushing a handler makes it the active one
+ * until it is removed again, then the handler below it continues. The reader keeps running meanwhile.
+ * <br>Every handler starts with an empty {@link ConsoleInputEvent#getCurrentBuffer() buffer} when it becomes active.
+ * A handler that {@link ConsoleInputEvent#cancelLoop() cancels the loop} is removed from the stack instead.
+ * Events that arrive while no handler is subscribed are dropped.
+ * <p>
+ * Other reads of the same terminal (eg. {@link ConsoleUtils#readHidden(String)} or another
+ * {@link ConsoleReader} loop) must not happen while the dispatcher is running.
+ * <br>All methods are thread safe.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class ConsoleDispatcher {
+    private static final ConsoleDispatcher SHARED = new ConsoleDispatcher();
+
+    /**
+     * @return The dispatcher all parts of an application should share instead of starting loops of their own
+     */
+    public static ConsoleDispatcher getShared() {
+        return SHARED;
+    }
+
+    private final Deque<Consumer<ConsoleInputEvent>> handlers = new ArrayDeque<>();
+    private LoopHandle loop = null;
+    //only accessed by the loop thread
+    private Consumer<ConsoleInputEvent> lastHandler = null;
+
+    ConsoleDispatcher() {}
+
+    /**
+     * Makes the given handler the active one, until it is removed or another handler is pushed.
+     *
+     * @param  handler
+     *         The handler to push on top of the stack
+     * @return This dispatcher for chaining
+     */
+    public synchronized ConsoleDispatcher push(Consumer<ConsoleInputEvent> handler) {
+        if(handler == null)
+            throw new IllegalArgumentException("Handler may not be null");
+        handlers.push(handler);
+        return this;
+    }
+
+    /**
+     * Removes the active handler, so the one below it receives the following events.
+     *
+     * @return The removed handler, or {@code null} if no handler was subscribed
+     */
+    public synchronized Consumer<ConsoleInputEvent> pop() {
+        return handlers.poll();
+    }
+
+    /**
+     * Removes the given handler from the stack, wherever it is.
+     *
+     * @param  handler
+     *         The handler to remove
+     * @return Whether the handler was subscribed
+     */
+    public synchronized boolean remove(Consumer<ConsoleInputEvent> handler) {
+        return handlers.removeFirstOccurrence(handler);
+    }
+
+    /**
+     * @return The handler that currently receives the events, or {@code null} if no handler is subscribed
+     */
+    public synchronized Consumer<ConsoleInputEvent> getActiveHandler() {
+        return handlers.peek();
+    }
+
+    /**
+     * Starts reading from the current {@link ConsoleUtils#getTerminalBackend() terminal backend} on a new thread.
+     *
+     * @return The handle of the loop, eg. to wait for its end
+     *
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws IllegalStateException
+     *         If the dispatcher is already running
+     * @see    #start(Executor)
+     */
+    public LoopHandle start() throws IOException {
+        return start(null);
+    }
+
+    /**
+     * Starts reading from the current {@link ConsoleUtils#getTerminalBackend() terminal backend} with the given
+     * executor.
+     * See {@link ConsoleReader#startLoopAsync(Consumer, boolean, Executor)} for the requirements of the executor.
+     *
+     * @param  executor
+     *         The executor to run the loop with, or {@code null} to use a new thread
+     * @return The handle of the loop, eg. to wait for its end
+     *
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws IllegalStateException
+     *         If the dispatcher is already running
+     */
+    public synchronized LoopHandle start(Executor executor) throws IOException {
+        if(isRunning())
+            throw new IllegalStateException("Dispatcher is already running");
+        lastHandler = null;
+        loop = ConsoleReader.startLoopAsync(this::dispatch, false,
+                executor == null ? ConsoleReader.DEFAULT_EXECUTOR : executor);
+        return loop;
+    }
+
+    /**
+     * @return Whether the dispatcher is reading.
+     *         It stops with {@link #stop()} or at the end of input
+     */
+    public synchronized boolean isRunning() {
+        return loop != null && loop.isRunning();
+    }
+
+    /**
+     * Stops reading. The handlers stay subscribed for the next {@link #start()}.
+     *
+     * @return The handle of the stopped loop to wait for its end, or {@code null} if the dispatcher was not started
+     */
+    public synchronized LoopHandle stop() {
+        if(loop != null)
+            loop.cancel();
+        return loop;
+    }
+
+    private void dispatch(ConsoleInputEvent event) {
+        Consumer<ConsoleInputEvent> handler = getActiveHandler();
+        if(handler != lastHandler) {
+            //the new handler starts with an empty buffer, only containing the input of this event
+            StringBuilder b = event.getCurrentBuffer();
+            int added = event.isPaste() ? event.getPastedText().length()
+                    : event.getAddedChar() == CharConstants.CHAR_BACKSPACE ? 0 : 1;
+            b.delete(0, b.length() - added);
+            lastHandler = handler;
+        }
+        if(handler == null)
+            return;
+        handler.accept(event);
+        if(event.isShouldCancel()) {
+            //a finished handler is removed, the dispatcher keeps running for the others
+            event.clearCancel();
+            remove(handler);
+        }
+    }
+}
@@ -1,29 +1,104 @@
 package com.kantenkugel.consoleutils;
 
 /**
+ * Event passed to the handler of a {@link ConsoleReader} loop for every input char.
+ * <p>
+ * If the terminal supports bracketed paste, pasted text is passed as a single event with the added char
+ * {@link CharConstants#CHAR_PASTE}, see {@link #getPastedText()}.
+ * <p>
+ * If the loop was started with event reuse enabled, the same instance is reset and passed again for the next
+ * input char, so handlers must not keep a reference to it after returning.
+ * <p>
+ * Events of a {@link ConsoleReader#startEditingLoop(java.util.function.Consumer, boolean) line editing loop}
+ * hold a {@link LineBuffer} instead of a {@link StringBuilder}, see {@link #getLine()}.
+ *
  * @author Kantenkugel (Michael Ritter)
  */
 public class ConsoleInputEvent {
     private final StringBuilder currentBuffer;
-    private final char addedChar;
+    private final LineBuffer line;
+    private char addedChar;
+    private CharSequence pastedText = null;
 
     private boolean shouldCancel;
 
     ConsoleInputEvent(StringBuilder currentBuffer, char addedChar) {
         this.currentBuffer = currentBuffer;
+        this.line = null;
         this.addedChar = addedChar;
     }
 
+    ConsoleInputEvent(LineBuffer line, char addedChar) {
+        this.currentBuffer = null;
+        this.line = line;
+        this.addedChar = addedChar;
+    }
+
+    void reset(char addedChar) {
+        this.addedChar = addedChar;
+        this.pastedText = null;
+        this.shouldCancel = false;
+    }
+
+    void resetPaste(CharSequence pastedText) {
+        reset(CharConstants.CHAR_PASTE);
+        this.pastedText = pastedText;
+    }
+
+    /**
+     * Returns the input of the loop so far. Handlers may change it, eg. to complete a word.
+     *
+     * @return The buffer, or {@code null} for events of a line editing loop, see {@link #getLine()}
+     */
     public StringBuilder getCurrentBuffer() {
         return currentBuffer;
     }
 
+    /**
+     * Returns the line of a line editing loop, with the {@link #getAddedChar() added char} already applied.
+     * Handlers may change it and its cursor.
+     *
+     * @return The line, or {@code null} if this event is not from a line editing loop
+     */
+    public LineBuffer getLine() {
+        return line;
+    }
+
+    /**
+     * @return The position of the cursor in the {@link #getLine() line}.
+     *         For events that are not from a line editing loop this is the end of the buffer
+     */
+    public int getCursor() {
+        return line != null ? line.getCursor() : currentBuffer.length();
+    }
+
     public char getAddedChar() {
         return addedChar;
     }
 
+    /**
+     * Returns the text that was pasted at once.
+     * <br>The text was already appended to the {@link #getCurrentBuffer() buffer} (or inserted at the cursor of the
+     * {@link #getLine() line}), line breaks converted to {@code \n}.
+     *
+     * @return The pasted text, or {@code null} if this event is not for a paste
+     */
+    public CharSequence getPastedText() {
+        return pastedText;
+    }
+
+    /**
+     * @return Whether this event is for pasted text
+     */
+    public boolean isPaste() {
+        return pastedText != null;
+    }
+
     public void clearBuffer() {
-        currentBuffer.setLength(0);
+        if(line != null)
+            line.clear();
+        else
+            currentBuffer.setLength(0);
     }
 
     public void cancelLoop() {
@@ -33,4 +108,8 @@ public class ConsoleInputEvent {
     public boolean isShouldCancel() {
         return shouldCancel;
     }
+
+    void clearCancel() {
+        shouldCancel = false;
+    }
 }
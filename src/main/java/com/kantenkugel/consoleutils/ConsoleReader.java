@@ -1,8 +1,11 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
-
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
@@ -10,47 +13,834 @@ import java.util.function.Consumer;
  * @author Kantenkugel (Michael Ritter)
  */
 public class ConsoleReader {
+    private static final int INPUT_BUFFER_SIZE = 1024;
+    //key codes buffered between the threads of a buffered loop
+    private static final int RING_CAPACITY = 4096;
+    //terminals in bracketed paste mode, switched back by the shutdown hook if the JVM exits during a loop
+    private static final Set<TerminalBackend> PASTE_TERMINALS = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean SHUTDOWN_HOOK_REGISTERED = new AtomicBoolean(false);
 
     public static void startLoop(Consumer<ConsoleInputEvent> consoleHandler) throws IOException {
-        loop(consoleHandler, new AtomicBoolean(true));
+        startLoop(consoleHandler, false);
+    }
+
+    /**
+     * Starts the input loop on the current thread.
+     * <p>
+     * If {@code reuseEvent} is {@code true}, a single {@link ConsoleInputEvent} instance is reset and passed to the
+     * handler for every input char, so the loop does not allocate anything per key stroke.
+     * <br>In this mode, handlers must not keep a reference to the event after returning.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static void startLoop(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent) throws IOException {
+        loop(consoleHandler, ConsoleUtils.getTerminalBackend(), new AtomicBoolean(true), reuseEvent, -1);
+    }
+
+    /**
+     * Starts the input loop on the current thread, ending it if the user does not type anything for the given time.
+     * <br>While waiting, no CPU time is used by the native terminal on Unix.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  idleTimeout
+     *         The maximum time to wait for the next key stroke
+     * @param  unit
+     *         The unit of {@code idleTimeout}
+     * @throws InterruptedIOException
+     *         If no key was pressed within the timeout
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static void startLoop(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent, long idleTimeout,
+                                 TimeUnit unit) throws IOException {
+        loop(consoleHandler, ConsoleUtils.getTerminalBackend(), new AtomicBoolean(true), reuseEvent,
+                unit.toMillis(idleTimeout));
     }
 
+    //runs loops on a new thread each
+    static final Executor DEFAULT_EXECUTOR = command -> new Thread(command, "ConsoleReader").start();
+
     public static Runnable startLoopAsync(Consumer<ConsoleInputEvent> consoleHandler) throws IOException {
-        AtomicBoolean running = new AtomicBoolean(true);
-        new Thread(() -> {
+        return startLoopAsync(consoleHandler, false);
+    }
+
+    /**
+     * Starts the input loop on a new thread.
+     * <br>Only one loop should read from a terminal at once, use {@link ConsoleDispatcher} to share it.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @throws IOException
+     *         If reading from the console fails
+     * @return A Runnable that stops the loop.
+     *         Use {@link #startLoopAsync(Consumer, boolean, Executor)} for a {@link LoopHandle} that can also wait for
+     *         the end of the loop
+     */
+    public static Runnable startLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent) throws IOException {
+        return startLoopAsync(consoleHandler, reuseEvent, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Starts the input loop with the given executor, which has to run it on a thread of its own,
+     * as it blocks until the loop ends.
+     * <br>Threads of a {@link java.util.concurrent.ThreadFactory} can be used with
+     * {@code command -> factory.newThread(command).start()}, eg. to read on a daemon thread.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  executor
+     *         The executor to run the loop with
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         If the executor did not accept the loop
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                            Executor executor) throws IOException {
+        return startAsync(new HandlerSink(consoleHandler, reuseEvent), ConsoleUtils.getTerminalBackend(), executor);
+    }
+
+    /**
+     * Starts an input loop on the current thread that lets the user edit the line.
+     * <br>The events of this loop hold a {@link LineBuffer} with a cursor (see {@link ConsoleInputEvent#getLine()})
+     * instead of a {@link StringBuilder}. The added char is applied to the line before the handler is called:
+     * <ul>
+     *     <li>{@link CharConstants#KEY_LEFT}, {@link CharConstants#KEY_RIGHT}, {@link CharConstants#KEY_HOME} and
+     *     {@link CharConstants#KEY_END} move the cursor</li>
+     *     <li>Backspace and {@link CharConstants#KEY_DELETE} delete the char before or after the cursor</li>
+     *     <li>Printable chars and pasted text are inserted at the cursor</li>
+     *     <li>Other control chars (like {@code \n}) and key codes do not change the line</li>
+     * </ul>
+     * Like the other loops, this does not echo anything, the handler has to draw the line.
+     * See {@link #startEditingLoop(Consumer, boolean, LineRenderer)} to let the loop draw it and
+     * {@link #startEditingLoop(Consumer, boolean, LineRenderer, CommandHistory)} to keep a history of the lines.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static void startEditingLoop(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent)
+            throws IOException {
+        startEditingLoop(consoleHandler, reuseEvent, null);
+    }
+
+    /**
+     * Starts a line editing loop (see {@link #startEditingLoop(Consumer, boolean)}) on the current thread,
+     * which draws the line itself.
+     * <br>After each change, the line is drawn with the given renderer before the handler is called.
+     * Once the handler finished a line (eg. by writing a line break), it has to {@link LineRenderer#reset() reset}
+     * the renderer.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  renderer
+     *         The renderer to draw the line with, or {@code null} to leave drawing to the handler
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static void startEditingLoop(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                        LineRenderer renderer) throws IOException {
+        startEditingLoop(consoleHandler, reuseEvent, renderer, null);
+    }
+
+    /**
+     * Starts a line editing loop (see {@link #startEditingLoop(Consumer, boolean, LineRenderer)}) on the current thread,
+     * which keeps a history of the entered lines.
+     * <br>Every line finished with {@code \n} is {@link CommandHistory#add(CharSequence) added} to the history before
+     * the handler is called. On top of the usual editing keys:
+     * <ul>
+     *     <li>{@link CharConstants#KEY_UP} and {@link CharConstants#KEY_DOWN} replace the line with the previous
+     *     or next entry. Going down past the most recent entry brings back the line that was edited before</li>
+     *     <li>{@link CharConstants#CHAR_CTRL_R} starts an incremental {@link CommandHistory#search() search}.
+     *     While searching, printable chars and backspace change the query, Ctrl+R again selects the next older match
+     *     and the line holds the selected match.
+     *     {@link CharConstants#CHAR_CTRL_G} or escape cancel the search and restore the line,
+     *     any other key ends the search and is applied to the line as usual</li>
+     * </ul>
+     * All of these keys are still passed to the handler. If a renderer is given, it shows the query in front of the
+     * line while searching.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  renderer
+     *         The renderer to draw the line with, or {@code null} to leave drawing to the handler
+     * @param  history
+     *         The history to use, or {@code null} to keep none
+     * @throws IOException
+     *         If reading from the console or accessing the history fails
+     */
+    public static void startEditingLoop(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                        LineRenderer renderer, CommandHistory history) throws IOException {
+        TerminalBackend backend = ConsoleUtils.getTerminalBackend();
+        loop(new EditingSink(consoleHandler, reuseEvent, renderer, history, backend), backend,
+                new AtomicBoolean(true), -1);
+    }
+
+    /**
+     * Starts a line editing loop (see {@link #startEditingLoop(Consumer, boolean)}) with the given executor.
+     * See {@link #startLoopAsync(Consumer, boolean, Executor)} for the requirements of the executor.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  executor
+     *         The executor to run the loop with
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         If the executor did not accept the loop
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startEditingLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                                   Executor executor) throws IOException {
+        return startEditingLoopAsync(consoleHandler, reuseEvent, null, executor);
+    }
+
+    /**
+     * Starts a line editing loop that draws the line itself (see
+     * {@link #startEditingLoop(Consumer, boolean, LineRenderer)}) with the given executor.
+     * See {@link #startLoopAsync(Consumer, boolean, Executor)} for the requirements of the executor.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  renderer
+     *         The renderer to draw the line with, or {@code null} to leave drawing to the handler
+     * @param  executor
+     *         The executor to run the loop with
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         If the executor did not accept the loop
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startEditingLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                                   LineRenderer renderer, Executor executor) throws IOException {
+        return startEditingLoopAsync(consoleHandler, reuseEvent, renderer, null, executor);
+    }
+
+    /**
+     * Starts a line editing loop that draws the line itself and keeps a history (see
+     * {@link #startEditingLoop(Consumer, boolean, LineRenderer, CommandHistory)}) with the given executor.
+     * See {@link #startLoopAsync(Consumer, boolean, Executor)} for the requirements of the executor.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  renderer
+     *         The renderer to draw the line with, or {@code null} to leave drawing to the handler
+     * @param  history
+     *         The history to use, or {@code null} to keep none
+     * @param  executor
+     *         The executor to run the loop with
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         If the executor did not accept the loop
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startEditingLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                                   LineRenderer renderer, CommandHistory history,
+                                                   Executor executor) throws IOException {
+        TerminalBackend backend = ConsoleUtils.getTerminalBackend();
+        return startAsync(new EditingSink(consoleHandler, reuseEvent, renderer, history, backend), backend, executor);
+    }
+
+    private static LoopHandle startAsync(InputSink sink, TerminalBackend backend, Executor executor) throws IOException {
+        if(executor == null)
+            throw new IllegalArgumentException("Executor may not be null");
+        LoopHandle handle = new LoopHandle(backend);
+        executor.execute(() -> {
+            try {
+                loop(sink, backend, handle.getShouldRun(), -1);
+            } catch(IOException e) {
+                handle.getShouldRun().set(false);
+                e.printStackTrace();
+            } finally {
+                handle.setFinished();
+            }
+        });
+        return handle;
+    }
+
+    /**
+     * Starts the input loop with a separate thread for the handler.
+     * <br>The reading thread only decodes the input into a preallocated ring of key codes, which the handler thread
+     * takes in batches. So a slow handler does not delay reading, eg. while text is pasted.
+     * <p>
+     * Both run on new threads, see {@link #startBufferedLoopAsync(Consumer, boolean, WaitStrategy, Executor)}.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  waitStrategy
+     *         How the handler thread waits for input and the reading thread waits if the ring is full
+     * @throws IOException
+     *         If reading from the console fails
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startBufferedLoopAsync(Consumer<ConsoleInputEvent> consoleHandler,
+                                                    WaitStrategy waitStrategy) throws IOException {
+        return startBufferedLoopAsync(consoleHandler, false, waitStrategy, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Starts the input loop with a separate thread for the handler, see
+     * {@link #startBufferedLoopAsync(Consumer, WaitStrategy)}.
+     * <br>The executor has to run the reading and the handling task on a thread each, as both block until the loop ends.
+     * <p>
+     * If the handler cancels the loop, input that it did not receive anymore is given back to the terminal.
+     * The handle only reports the loop as ended once both threads are done.
+     *
+     * @param  consoleHandler
+     *         The handler that gets called for every input char
+     * @param  reuseEvent
+     *         Whether or not to reuse the same event instance for all input chars.
+     *         See {@link #startLoop(Consumer, boolean)} for details
+     * @param  waitStrategy
+     *         How the handler thread waits for input and the reading thread waits if the ring is full
+     * @param  executor
+     *         The executor to run both threads with
+     * @throws IOException
+     *         If reading from the console fails
+     * @throws java.util.concurrent.RejectedExecutionException
+     *         If the executor did not accept the tasks
+     * @return A handle to stop the loop (also by running it) and wait for its end
+     */
+    public static LoopHandle startBufferedLoopAsync(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent,
+                                                    WaitStrategy waitStrategy, Executor executor) throws IOException {
+        if(waitStrategy == null || executor == null)
+            throw new IllegalArgumentException("Wait strategy and executor may not be null");
+        TerminalBackend backend = ConsoleUtils.getTerminalBackend();
+        LoopHandle handle = new LoopHandle(backend, 2);
+        AtomicBoolean shouldRun = handle.getShouldRun();
+        KeyRing ring = new KeyRing(RING_CAPACITY, waitStrategy);
+        executor.execute(() -> {
+            try {
+                loop(new RingSink(ring), backend, shouldRun, -1);
+            } catch(IOException e) {
+                shouldRun.set(false);
+                e.printStackTrace();
+            } finally {
+                ring.close();
+                handle.setFinished();
+            }
+        });
+        executor.execute(() -> {
+            boolean completed = false;
             try {
-                loop(consoleHandler, running);
+                consume(ring, consoleHandler, backend, shouldRun, reuseEvent);
+                completed = true;
             } catch(IOException e) {
-                running.set(false);
                 e.printStackTrace();
+            } finally {
+                //if the handler failed, the reading thread must neither keep reading nor wait for space in the ring
+                ring.closeConsumer();
+                if(!completed) {
+                    try {
+                        stop(shouldRun, backend);
+                    } catch(IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                handle.setFinished();
             }
-        }).start();
-        return () -> running.set(false);
+        });
+        return handle;
+    }
+
+    //timeoutMillis is the idle timeout, negative to wait without a limit
+    static void loop(Consumer<ConsoleInputEvent> consoleHandler, TerminalBackend backend, AtomicBoolean shouldRun,
+                     boolean reuseEvent, long timeoutMillis) throws IOException {
+        loop(new HandlerSink(consoleHandler, reuseEvent), backend, shouldRun, timeoutMillis);
     }
 
-    static void loop(Consumer<ConsoleInputEvent> consoleHandler, AtomicBoolean shouldRun) throws IOException {
+    private static void loop(InputSink sink, TerminalBackend backend, AtomicBoolean shouldRun, long timeoutMillis)
+            throws IOException {
         int read;
-        final StringBuilder b = new StringBuilder();
-        while(shouldRun.get()) {
-            read = RawConsoleInput.read(true);
-            if(read == -1)
-                read = CharConstants.CHAR_CTRL_D;
-            if(read == '\r')
-                read = '\n';
-            if(read == CharConstants.CHAR_BACKSPACE)
+        final char[] input = new char[INPUT_BUFFER_SIZE];
+        final BracketedPaste paste = backend.supportsBracketedPaste() ? new BracketedPaste() : null;
+        //bound to the backend of this loop, as the current terminal may be changed while it runs
+        final TerminalWriter out = paste != null ? TerminalWriter.forBackend(backend) : null;
+        //switch to raw mode once for the whole loop instead of around every single read
+        backend.enterRawMode();
+        long deadline = ConsoleUtils.deadline(timeoutMillis);
+        try {
+            if(paste != null) {
+                registerShutdownHook();
+                PASTE_TERMINALS.add(backend);
+                out.append(BracketedPaste.ENABLE);
+            }
+            while(shouldRun.get()) {
+                //read everything that is available at once (eg. pasted text)
+                //if the start of a paste marker is held back, only look whether the rest of it is available
+                boolean holding = paste != null && paste.isHoldingStart();
+                int amount = backend.read(input, 0, input.length,
+                        holding ? 0 : ConsoleUtils.remainingMillis(timeoutMillis, deadline));
+                if(holding && amount < 0) {
+                    //no paste after all (eg. the escape key)
+                    if(handleReleased(sink, paste.releaseHeld()))
+                        shouldRun.set(false);
+                    continue;
+                }
+                if(amount == TerminalBackend.NO_INPUT) {
+                    //either woken up to stop the loop or the idle timeout has expired
+                    if(shouldRun.get() && ConsoleUtils.remainingMillis(timeoutMillis, deadline) == 0)
+                        throw ConsoleUtils.timedOut(timeoutMillis);
+                    continue;
+                }
+                deadline = ConsoleUtils.deadline(timeoutMillis);
+                if(amount == -1) {
+                    //the end of input is passed on once, nothing can be read afterwards
+                    sink.endOfInput();
+                    break;
+                }
+                for(int i = 0; i < amount; i++) {
+                    if(!shouldRun.get()) {
+                        //give back input that was read but not handled anymore
+                        backend.unread(input, i, amount - i);
+                        break;
+                    }
+                    read = input[i];
+                    if(read == '\r')
+                        read = '\n';
+                    boolean cancel;
+                    if(paste == null) {
+                        cancel = sink.key((char) read);
+                    } else {
+                        int result = paste.accept((char) read);
+                        cancel = handleReleased(sink, paste.getReleased());
+                        if(result == BracketedPaste.PASS)
+                            cancel |= sink.key((char) read);
+                        else if(result == BracketedPaste.FINISHED)
+                            cancel |= sink.paste(paste.getPastedText());
+                    }
+                    if(cancel)
+                        shouldRun.set(false);
+                }
+            }
+        } finally {
+            try {
+                if(paste != null) {
+                    PASTE_TERMINALS.remove(backend);
+                    out.append(BracketedPaste.DISABLE);
+                }
+            } finally {
+                backend.resetConsoleMode();
+            }
+        }
+    }
+
+    //the console mode is reset by the shutdown hook of RawConsoleInput, but only the loop knows about paste mode
+    private static void registerShutdownHook() {
+        if(SHUTDOWN_HOOK_REGISTERED.compareAndSet(false, true))
+            Runtime.getRuntime().addShutdownHook(new Thread(ConsoleReader::resetTerminals, "ConsoleReader-shutdown"));
+    }
+
+    //switches off paste mode of loops that did not end, then resets the console mode like the finally block of a loop
+    private static void resetTerminals() {
+        for(TerminalBackend backend : PASTE_TERMINALS) {
+            try {
+                TerminalWriter.forBackend(backend).append(BracketedPaste.DISABLE);
+                backend.resetConsoleMode();
+            } catch(IOException e) {
+                //the terminal is gone already, nothing left to reset
+            }
+        }
+    }
+
+    //passes held back chars of a paste start marker that turned out to be normal input on
+    private static boolean handleReleased(InputSink sink, int amount) throws IOException {
+        boolean cancel = false;
+        for(int i = 0; i < amount; i++)
+            cancel |= sink.key(BracketedPaste.START.charAt(i));
+        return cancel;
+    }
+
+    //the handler side of a buffered loop, runs until the ring is closed
+    private static void consume(KeyRing ring, Consumer<ConsoleInputEvent> consoleHandler, TerminalBackend backend,
+                                AtomicBoolean shouldRun, boolean reuseEvent) throws IOException {
+        HandlerSink sink = new HandlerSink(consoleHandler, reuseEvent);
+        int[] codes = new int[INPUT_BUFFER_SIZE];
+        StringBuilder pasted = new StringBuilder();
+        boolean inPaste = false;
+        //input the handler does not get anymore after it stopped the loop
+        StringBuilder unhandled = new StringBuilder();
+        int amount;
+        try {
+            while((amount = ring.take(codes)) != -1) {
+                for(int i = 0; i < amount; i++) {
+                    int code = codes[i];
+                    if(code == KeyRing.END_OF_INPUT) {
+                        if(shouldRun.get())
+                            sink.endOfInput();
+                    } else if(code == KeyRing.PASTE_START) {
+                        inPaste = true;
+                    } else if(code == KeyRing.PASTE_END) {
+                        inPaste = false;
+                        if(shouldRun.get() && sink.paste(pasted))
+                            stop(shouldRun, backend);
+                        else if(!shouldRun.get())
+                            unhandled.append(pasted);
+                        pasted.setLength(0);
+                    } else if(inPaste) {
+                        pasted.append((char) code);
+                    } else if(!shouldRun.get()) {
+                        unhandled.append((char) code);
+                    } else if(sink.key((char) code)) {
+                        stop(shouldRun, backend);
+                    }
+                }
+            }
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for input");
+        }
+        //the ring is closed, so the reading thread already gave back its unhandled input, which comes after this
+        if(unhandled.length() > 0) {
+            char[] chars = new char[unhandled.length()];
+            unhandled.getChars(0, chars.length, chars, 0);
+            backend.unread(chars, 0, chars.length);
+        }
+    }
+
+    private static void stop(AtomicBoolean shouldRun, TerminalBackend backend) throws IOException {
+        shouldRun.set(false);
+        backend.wakeup();
+    }
+
+    //returns true if the handler requested to cancel the loop
+    static boolean handlePaste(Consumer<ConsoleInputEvent> consoleHandler, StringBuilder b, CharSequence pastedText,
+                               ConsoleInputEvent reusableEvent) {
+        b.append(pastedText);
+        ConsoleInputEvent event;
+        if(reusableEvent != null) {
+            event = reusableEvent;
+            event.resetPaste(pastedText);
+        } else {
+            event = new ConsoleInputEvent(b, CharConstants.CHAR_PASTE);
+            event.resetPaste(pastedText.toString());
+        }
+        consoleHandler.accept(event);
+        return event.isShouldCancel();
+    }
+
+    //returns true if the handler requested to cancel the loop
+    static boolean handleInput(Consumer<ConsoleInputEvent> consoleHandler, StringBuilder b, char read,
+                               ConsoleInputEvent reusableEvent) {
+        if(read == CharConstants.CHAR_BACKSPACE) {
+            if(b.length() > 0)
                 b.setLength(b.length()-1);
+        }
+        else
+            b.append(read);
+        ConsoleInputEvent event;
+        if(reusableEvent != null) {
+            event = reusableEvent;
+            event.reset(read);
+        } else {
+            event = new ConsoleInputEvent(b, read);
+        }
+        consoleHandler.accept(event);
+        return event.isShouldCancel();
+    }
+
+    //applies the read char to the line of a line editing loop
+    static void applyEdit(LineBuffer line, char read) {
+        switch(read) {
+            case CharConstants.CHAR_BACKSPACE:
+                line.deleteBeforeCursor();
+                break;
+            case CharConstants.KEY_DELETE:
+                line.deleteAfterCursor();
+                break;
+            case CharConstants.KEY_LEFT:
+                line.moveLeft();
+                break;
+            case CharConstants.KEY_RIGHT:
+                line.moveRight();
+                break;
+            case CharConstants.KEY_HOME:
+                line.moveHome();
+                break;
+            case CharConstants.KEY_END:
+                line.moveEnd();
+                break;
+            default:
+                if(!Character.isISOControl(read) && !CharConstants.isKeyCode(read))
+                    line.insert(read);
+        }
+    }
+
+    //receives the decoded input of a loop
+    private interface InputSink {
+        //both return true if the loop should stop
+        boolean key(char c) throws IOException;
+
+        boolean paste(CharSequence pastedText) throws IOException;
+
+        //the loop ends afterwards anyway
+        void endOfInput() throws IOException;
+    }
+
+    //passes the input to a handler on the reading thread
+    private static final class HandlerSink implements InputSink {
+        private final Consumer<ConsoleInputEvent> consoleHandler;
+        private final StringBuilder b = new StringBuilder();
+        private final ConsoleInputEvent reusableEvent;
+
+        private HandlerSink(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent) {
+            this.consoleHandler = consoleHandler;
+            this.reusableEvent = reuseEvent ? new ConsoleInputEvent(b, '\0') : null;
+        }
+
+        @Override
+        public boolean key(char c) {
+            return handleInput(consoleHandler, b, c, reusableEvent);
+        }
+
+        @Override
+        public boolean paste(CharSequence pastedText) {
+            return handlePaste(consoleHandler, b, pastedText, reusableEvent);
+        }
+
+        @Override
+        public void endOfInput() {
+            //passed on as Ctrl+D
+            handleInput(consoleHandler, b, CharConstants.CHAR_CTRL_D, reusableEvent);
+        }
+    }
+
+    //passes the input to a handler on the reading thread, editing a line instead of appending to it
+    private static final class EditingSink implements InputSink {
+        private final Consumer<ConsoleInputEvent> consoleHandler;
+        private final LineBuffer line = new LineBuffer();
+        private final ConsoleInputEvent reusableEvent;
+        //both null if the handler draws the line
+        private final LineRenderer renderer;
+        private final TerminalWriter out;
+        //null if no history is kept
+        private final CommandHistory history;
+        //index of the shown entry while browsing the history, -1 otherwise
+        private int historyIndex = -1;
+        //the line before browsing or searching the history, restored when leaving it
+        private String editedLine;
+        private String searchedLine;
+        //the running Ctrl+R search, null otherwise
+        private CommandHistory.Search search;
+        private boolean searchFailed;
+        private final StringBuilder searchPrompt = new StringBuilder();
+
+        private EditingSink(Consumer<ConsoleInputEvent> consoleHandler, boolean reuseEvent, LineRenderer renderer,
+                            CommandHistory history, TerminalBackend backend) {
+            this.consoleHandler = consoleHandler;
+            this.reusableEvent = reuseEvent ? new ConsoleInputEvent(line, '\0') : null;
+            this.renderer = renderer;
+            this.out = renderer != null ? TerminalWriter.forBackend(backend) : null;
+            this.history = history;
+        }
+
+        @Override
+        public boolean key(char c) throws IOException {
+            if(history != null)
+                applyHistoryEdit(c);
             else
-                b.append((char) read);
-            ConsoleInputEvent event = new ConsoleInputEvent(b, (char) read);
+                applyEdit(line, c);
+            draw();
+            ConsoleInputEvent event;
+            if(reusableEvent != null) {
+                event = reusableEvent;
+                event.reset(c);
+            } else {
+                event = new ConsoleInputEvent(line, c);
+            }
+            return handle(event);
+        }
+
+        @Override
+        public boolean paste(CharSequence pastedText) throws IOException {
+            //pasting ends a search, like any other key that is not used by it
+            search = null;
+            line.insert(pastedText);
+            draw();
+            ConsoleInputEvent event;
+            if(reusableEvent != null) {
+                event = reusableEvent;
+                event.resetPaste(pastedText);
+            } else {
+                event = new ConsoleInputEvent(line, CharConstants.CHAR_PASTE);
+                event.resetPaste(pastedText.toString());
+            }
+            return handle(event);
+        }
+
+        @Override
+        public void endOfInput() throws IOException {
+            //passed on as Ctrl+D
+            key(CharConstants.CHAR_CTRL_D);
+        }
+
+        private void applyHistoryEdit(char c) throws IOException {
+            if(search != null && applySearchEdit(c))
+                return;
+            switch(c) {
+                case CharConstants.KEY_UP:
+                    if(historyIndex < 0) {
+                        editedLine = line.toString();
+                        historyIndex = history.size();
+                    }
+                    if(historyIndex > 0)
+                        replaceLine(history.get(--historyIndex));
+                    break;
+                case CharConstants.KEY_DOWN:
+                    if(historyIndex < 0)
+                        break;
+                    if(++historyIndex < history.size()) {
+                        replaceLine(history.get(historyIndex));
+                    } else {
+                        replaceLine(editedLine);
+                        historyIndex = -1;
+                    }
+                    break;
+                case CharConstants.CHAR_CTRL_R:
+                    searchedLine = line.toString();
+                    search = history.search();
+                    searchFailed = false;
+                    break;
+                case '\n':
+                    history.add(line);
+                    historyIndex = -1;
+                    break;
+                default:
+                    applyEdit(line, c);
+            }
+        }
+
+        //returns false if the key ended the search and still has to be applied to the line
+        private boolean applySearchEdit(char c) {
+            switch(c) {
+                case CharConstants.CHAR_CTRL_R:
+                    search.older();
+                    break;
+                case CharConstants.CHAR_BACKSPACE:
+                    CharSequence query = search.getQuery();
+                    if(query.length() > 0)
+                        searchFailed = !search.setQuery(query.subSequence(0, query.length() - 1));
+                    break;
+                case CharConstants.CHAR_CTRL_G:
+                case CharConstants.CHAR_ESCAPE:
+                    replaceLine(searchedLine);
+                    search = null;
+                    return true;
+                default:
+                    if(Character.isISOControl(c) || CharConstants.isKeyCode(c)) {
+                        search = null;
+                        return false;
+                    }
+                    searchFailed = !search.append(c);
+            }
+            //like in shells, the line is kept until something was typed
+            if(!searchFailed && search.getQuery().length() > 0)
+                replaceLine(search.getMatch());
+            return true;
+        }
+
+        private void replaceLine(String text) {
+            line.clear();
+            line.insert(text);
+        }
+
+        private void draw() throws IOException {
+            if(renderer == null)
+                return;
+            if(search == null) {
+                renderer.render(line, line.getCursor(), out);
+                return;
+            }
+            searchPrompt.setLength(0);
+            searchPrompt.append(searchFailed ? "(failed reverse-i-search)`" : "(reverse-i-search)`")
+                    .append(search.getQuery()).append("': ");
+            int promptLength = searchPrompt.length();
+            searchPrompt.append(line);
+            renderer.render(searchPrompt, promptLength + line.getCursor(), out);
+        }
+
+        private boolean handle(ConsoleInputEvent event) {
             consoleHandler.accept(event);
-            if(event.isShouldCancel())
-                shouldRun.set(false);
+            return event.isShouldCancel();
+        }
+    }
+
+    //passes the input to the handler thread of a buffered loop, which stops the loop itself
+    private static final class RingSink implements InputSink {
+        private final KeyRing ring;
+
+        private RingSink(KeyRing ring) {
+            this.ring = ring;
+        }
+
+        //both return true if the handler thread is gone, which ends the loop
+        @Override
+        public boolean key(char c) throws IOException {
+            return !put(c);
+        }
+
+        @Override
+        public boolean paste(CharSequence pastedText) throws IOException {
+            boolean taken = put(KeyRing.PASTE_START);
+            for(int i = 0; taken && i < pastedText.length(); i++)
+                taken = put(pastedText.charAt(i));
+            return !(taken && put(KeyRing.PASTE_END));
+        }
+
+        @Override
+        public void endOfInput() throws IOException {
+            put(KeyRing.END_OF_INPUT);
+        }
+
+        private boolean put(int code) throws InterruptedIOException {
+            try {
+                return ring.put(code);
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the handler");
+            }
         }
-        resetConsoleMode();
     }
 
     public static void resetConsoleMode() throws IOException {
-        RawConsoleInput.resetConsoleMode();
+        ConsoleUtils.getTerminalBackend().resetConsoleMode();
     }
 
     private ConsoleReader() {
@@ -1,26 +1,103 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
-
 import java.awt.event.KeyEvent;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author Kantenkugel (Michael Ritter) & Avarel
  */
 public class ConsoleUtils {
+    private static volatile TerminalBackend terminalBackend = NativeTerminalBackend.getInstance();
+
+    /**
+     * Sets the terminal all console utilities read from and write to.
+     * <br>Loops that are already running keep using the previous backend for their input.
+     *
+     * @param  backend
+     *         The new terminal backend
+     */
+    public static void setTerminalBackend(TerminalBackend backend) {
+        if(backend == null)
+            throw new IllegalArgumentException("Terminal backend may not be null");
+        terminalBackend = backend;
+    }
+
+    /**
+     * @return The terminal all console utilities read from and write to,
+     *         {@link NativeTerminalBackend} unless changed with {@link #setTerminalBackend(TerminalBackend)}
+     */
+    public static TerminalBackend getTerminalBackend() {
+        return terminalBackend;
+    }
+
     public static String readHidden(String placeholder) throws IOException {
-        return readInternal(placeholder, null);
+        return readInternal(placeholder, null, -1);
+    }
+
+    /**
+     * Reads a line like {@link #readHidden(String)}, but gives up if the user does not type anything for the given time.
+     * <br>While waiting, no CPU time is used by the native terminal on Unix.
+     *
+     * @param  placeholder
+     *         The placeholder to print for every typed char, or {@code null} to print the chars themselves
+     * @param  idleTimeout
+     *         The maximum time to wait for the next key stroke
+     * @param  unit
+     *         The unit of {@code idleTimeout}
+     * @return The line, or {@code null} if the user pressed Ctrl+C on empty input or the input ended before anything
+     *         was typed. If the input ends after some chars, they are returned as the line.
+     *
+     * @throws InterruptedIOException
+     *         If no key was pressed within the timeout
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static String readHidden(String placeholder, long idleTimeout, TimeUnit unit) throws IOException {
+        return readInternal(placeholder, null, unit.toMillis(idleTimeout));
     }
 
     public static String readWithInitialBuffer(String init) throws IOException {
-        return readInternal(null, init);
+        return readInternal(null, init, -1);
+    }
+
+    /**
+     * Reads a line like {@link #readWithInitialBuffer(String)},
+     * but gives up if the user does not type anything for the given time.
+     * <br>While waiting, no CPU time is used by the native terminal on Unix.
+     *
+     * @param  init
+     *         The text the line starts with, which can be edited by the user
+     * @param  idleTimeout
+     *         The maximum time to wait for the next key stroke
+     * @param  unit
+     *         The unit of {@code idleTimeout}
+     * @return The line, or {@code null} if the user pressed Ctrl+C on the unchanged input or the input ended before it
+     *         was changed. If the input ends after changes, the changed text is returned as the line.
+     *
+     * @throws InterruptedIOException
+     *         If no key was pressed within the timeout
+     * @throws IOException
+     *         If reading from the console fails
+     */
+    public static String readWithInitialBuffer(String init, long idleTimeout, TimeUnit unit) throws IOException {
+        return readInternal(null, init, unit.toMillis(idleTimeout));
     }
 
+    /**
+     * Erases the char before the cursor on the terminal.
+     *
+     * @throws UncheckedIOException
+     *         If the terminal could not be written to
+     */
     public static void backspace() {
-        System.out.print(CharConstants.CHAR_BACKSPACE);
-        System.out.print(' ');
-        System.out.print(CharConstants.CHAR_BACKSPACE);
+        try {
+            TerminalWriter.get().erase(1);
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
 
@@ -30,45 +107,117 @@ public class ConsoleUtils {
     public static boolean isPrintableChar(char c) {
         Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
         return (!Character.isISOControl(c)) &&
+                !CharConstants.isKeyCode(c) &&
                 c != KeyEvent.CHAR_UNDEFINED &&
                 block != null &&
                 block != Character.UnicodeBlock.SPECIALS;
     }
 
-    private static String readInternal(String placeholder, String initialBuffer) throws IOException {
+    //timeoutMillis is the idle timeout per char, negative to wait without a limit
+    private static String readInternal(String placeholder, String initialBuffer, long timeoutMillis) throws IOException {
+        TerminalBackend backend = terminalBackend;
+        if(!backend.isInteractive()) {
+            //piped input: no echo, just the next line
+            if(timeoutMillis >= 0) {
+                //only the start of the line can be waited for
+                char[] first = new char[1];
+                int amount = backend.read(first, 0, 1, timeoutMillis);
+                if(amount == TerminalBackend.NO_INPUT)
+                    throw timedOut(timeoutMillis);
+                if(amount > 0)
+                    backend.unread(first, 0, 1);
+            }
+            String line = backend.readLine();
+            return line == null || initialBuffer == null ? line : initialBuffer + line;
+        }
         if(initialBuffer != null)
-            System.out.print(initialBuffer);
+            TerminalWriter.get().append(initialBuffer);
         StringBuilder b = initialBuffer == null ? new StringBuilder() : new StringBuilder(initialBuffer);
+        backend.enterRawMode();
+        try {
+            return readLoop(backend, b, placeholder, initialBuffer, timeoutMillis);
+        } finally {
+            backend.leaveRawMode();
+        }
+    }
+
+    private static String readLoop(TerminalBackend backend, StringBuilder b, String placeholder, String initialBuffer,
+                                   long timeoutMillis) throws IOException {
+        TerminalWriter out = TerminalWriter.get();
         int read;
-        while ((read = RawConsoleInput.read(true)) != -1) {
-            if(!isPrintableChar((char) read)) {
-                if(read == CharConstants.CHAR_BACKSPACE) {
-                    if(b.length() == 0) continue;
-                    b.setLength(b.length() - 1);
-                    if(placeholder != null) {
-                        for(int i = 0; i < placeholder.length(); i++)
+        long deadline = deadline(timeoutMillis);
+        while ((read = backend.read(remainingMillis(timeoutMillis, deadline))) != -1) {
+            if(read == TerminalBackend.NO_INPUT) {
+                //a wakeup meant for a loop that has already ended
+                if(remainingMillis(timeoutMillis, deadline) != 0)
+                    continue;
+                //end the line the user was typing on
+                out.append('\n');
+                throw timedOut(timeoutMillis);
+            }
+            deadline = deadline(timeoutMillis);
+            //function keys and arrow keys can not be used here
+            if(CharConstants.isKeyCode((char) read))
+                continue;
+            //collect all output for this char and write it at once
+            out.beginBatch();
+            try {
+                if(!isPrintableChar((char) read)) {
+                    if(read == CharConstants.CHAR_BACKSPACE) {
+                        if(b.length() == 0) continue;
+                        b.setLength(b.length() - 1);
+                        int columns = placeholder != null ? placeholder.length() : 1;
+                        if(columns == 1)
+                            //only appends to the batch, so write errors are thrown by endBatch
                             ConsoleUtils.backspace();
-                    } else {
-                        ConsoleUtils.backspace();
+                        else
+                            //a multi-char placeholder is erased at once instead of char by char
+                            out.erase(columns);
+                        continue;
                     }
-                    continue;
-                }
-                if(read == CharConstants.CHAR_CTRL_C && (b.length() == 0 ||
-                        (initialBuffer != null && initialBuffer.length() == b.length() && initialBuffer.equals(b.toString())))) {
-                    //if user pressed ctrl+c on "empty" input, return null to let calling code know
-                    return null;
+                    if(read == CharConstants.CHAR_CTRL_C && isUnchanged(b, initialBuffer)) {
+                        //if user pressed ctrl+c on "empty" input, return null to let calling code know
+                        return null;
+                    }
+                    break;
                 }
-                break;
+                b.append((char) read);
+                if(placeholder != null && placeholder.length() > 0)
+                    out.append(placeholder);
+                else if(placeholder == null)
+                    out.append((char) read);
+            } finally {
+                out.endBatch();
             }
-            b.append((char) read);
-            if(placeholder != null && placeholder.length() > 0)
-                System.out.print(placeholder);
-            else if(placeholder == null)
-                System.out.print((char) read);
         }
-        System.out.print("\n");
+        //like a piped line, input that ended before anything was typed is no line at all
+        if(read == -1 && isUnchanged(b, initialBuffer))
+            return null;
+        out.append('\n');
         return b.toString();
     }
 
+    private static boolean isUnchanged(StringBuilder b, String initialBuffer) {
+        return b.length() == 0 ||
+                (initialBuffer != null && initialBuffer.length() == b.length() && initialBuffer.equals(b.toString()));
+    }
+
+    //the System.nanoTime() the idle timeout expires at, meaningless for negative timeouts
+    static long deadline(long timeoutMillis) {
+        return timeoutMillis < 0 ? 0 : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    //the timeout to pass to the next read, rounded up to whole milliseconds and negative if there is none
+    static long remainingMillis(long timeoutMillis, long deadline) {
+        if(timeoutMillis < 0)
+            return -1;
+        long remaining = deadline - System.nanoTime();
+        return remaining <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remaining + 999999);
+    }
+
+    static InterruptedIOException timedOut(long timeoutMillis) {
+        return new InterruptedIOException("No input within " + timeoutMillis + " ms");
+    }
+
     private ConsoleUtils() {}
 }
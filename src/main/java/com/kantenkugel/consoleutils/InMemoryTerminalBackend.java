@@ -0,0 +1,213 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A {@link TerminalBackend} reading scripted input from memory and collecting all output.
+ * <p>
+ * Reads never block: once all input is consumed, they report the end of input.
+ * Output is encoded as UTF-8.
+ * <br>All methods are thread safe.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class InMemoryTerminalBackend implements TerminalBackend {
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    //unread input is input[inputPos] to input[inputLen - 1]
+    private char[] input;
+    private int inputPos = 0;
+    private int inputLen;
+    private volatile boolean interactive = true;
+    private volatile boolean bracketedPaste = false;
+    private volatile boolean ansiEscapes = false;
+
+    /**
+     * Creates a new backend without any input.
+     */
+    public InMemoryTerminalBackend() {
+        this("");
+    }
+
+    /**
+     * Creates a new backend with the given input.
+     *
+     * @param  input
+     *         The input to read
+     */
+    public InMemoryTerminalBackend(CharSequence input) {
+        this.input = input.toString().toCharArray();
+        this.inputLen = this.input.length;
+    }
+
+    /**
+     * Appends to the input that is still to be read.
+     *
+     * @param  input
+     *         The input to append
+     * @return This backend for chaining
+     */
+    public synchronized InMemoryTerminalBackend addInput(CharSequence input) {
+        ensureCapacity(input.length());
+        for(int i = 0; i < input.length(); i++)
+            this.input[inputLen++] = input.charAt(i);
+        return this;
+    }
+
+    /**
+     * Sets whether this backend behaves like a terminal (the default) or like piped input,
+     * which is read line by line without any output.
+     *
+     * @param  interactive
+     *         Whether the input is interactive
+     * @return This backend for chaining
+     */
+    public InMemoryTerminalBackend setInteractive(boolean interactive) {
+        this.interactive = interactive;
+        return this;
+    }
+
+    /**
+     * Sets whether this backend reports support for bracketed paste mode. Disabled by default.
+     *
+     * @param  bracketedPaste
+     *         Whether bracketed paste is supported
+     * @return This backend for chaining
+     */
+    public InMemoryTerminalBackend setBracketedPaste(boolean bracketedPaste) {
+        this.bracketedPaste = bracketedPaste;
+        return this;
+    }
+
+    /**
+     * Sets whether this backend reports support for ANSI escape sequences. Disabled by default.
+     *
+     * @param  ansiEscapes
+     *         Whether ANSI escape sequences are supported
+     * @return This backend for chaining
+     */
+    public InMemoryTerminalBackend setAnsiEscapes(boolean ansiEscapes) {
+        this.ansiEscapes = ansiEscapes;
+        return this;
+    }
+
+    /**
+     * @return The input that was not read yet
+     */
+    public synchronized String getRemainingInput() {
+        return new String(input, inputPos, inputLen - inputPos);
+    }
+
+    /**
+     * @return All output written so far
+     */
+    public synchronized String getOutput() {
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Discards all output written so far.
+     */
+    public synchronized void clearOutput() {
+        output.reset();
+    }
+
+    @Override
+    public synchronized int read(boolean wait) {
+        if(inputPos == inputLen)
+            return -1;
+        return input[inputPos++];
+    }
+
+    @Override
+    public synchronized int read(char[] dst, int off, int len, boolean wait) {
+        if(inputPos == inputLen)
+            return -1;
+        int amount = Math.min(len, inputLen - inputPos);
+        System.arraycopy(input, inputPos, dst, off, amount);
+        inputPos += amount;
+        return amount;
+    }
+
+    @Override
+    public int read(long timeoutMillis) {
+        return read(timeoutMillis != 0);
+    }
+
+    @Override
+    public int read(char[] dst, int off, int len, long timeoutMillis) {
+        //never waits, so there is nothing to time out
+        return read(dst, off, len, timeoutMillis != 0);
+    }
+
+    @Override
+    public synchronized String readLine() {
+        if(inputPos == inputLen)
+            return null;
+        int start = inputPos;
+        while(inputPos < inputLen && input[inputPos] != '\n')
+            inputPos++;
+        int end = inputPos;
+        if(inputPos < inputLen)
+            inputPos++; //skip the line feed
+        if(end > start && input[end - 1] == '\r')
+            end--;
+        return new String(input, start, end - start);
+    }
+
+    @Override
+    public boolean isInteractive() {
+        return interactive;
+    }
+
+    @Override
+    public boolean supportsBracketedPaste() {
+        return bracketedPaste;
+    }
+
+    @Override
+    public boolean supportsAnsiEscapes() {
+        return ansiEscapes;
+    }
+
+    @Override
+    public synchronized void unread(char[] src, int off, int len) {
+        if(inputPos < len) {
+            //make room in front of the remaining input
+            char[] bigger = new char[len + inputLen - inputPos + 16];
+            int start = bigger.length - (inputLen - inputPos);
+            System.arraycopy(input, inputPos, bigger, start, inputLen - inputPos);
+            input = bigger;
+            inputPos = start;
+            inputLen = bigger.length;
+        }
+        inputPos -= len;
+        System.arraycopy(src, off, input, inputPos, len);
+    }
+
+    @Override
+    public synchronized void write(byte[] src, int off, int len) {
+        output.write(src, off, len);
+    }
+
+    @Override
+    public Charset getCharset() {
+        return StandardCharsets.UTF_8;
+    }
+
+    @Override
+    public void enterRawMode() {}
+
+    @Override
+    public void leaveRawMode() {}
+
+    @Override
+    public void resetConsoleMode() {}
+
+    private void ensureCapacity(int additional) {
+        if(input.length - inputLen < additional)
+            input = Arrays.copyOf(input, Math.max(input.length * 2, inputLen + additional));
+    }
+}
@@ -0,0 +1,233 @@
+package com.kantenkugel.consoleutils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded single producer single consumer queue of key codes.
+ * <p>
+ * All slots are allocated up front and adding or taking codes does not allocate or lock anything.
+ * Only waiting with {@link WaitStrategy#BLOCK} uses a lock.
+ * <br>Key codes are chars, or one of the markers {@link #PASTE_START}, {@link #PASTE_END} and {@link #END_OF_INPUT}.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+final class KeyRing {
+    /**
+     * Starts pasted text, which is ended by {@link #PASTE_END}.
+     */
+    static final int PASTE_START = 0x10000;
+    static final int PASTE_END = 0x10001;
+    /**
+     * The input has ended, the handler gets Ctrl+D for it.
+     */
+    static final int END_OF_INPUT = 0x10002;
+
+    private static final int MAX_BUSY_SPINS = 100;
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final int[] codes;
+    private final int mask;
+    private final WaitStrategy waitStrategy;
+
+    //the index of the next code to add, only changed by the producer
+    private final AtomicLong tail = new AtomicLong();
+    //the index of the next code to take, only changed by the consumer
+    private final AtomicLong head = new AtomicLong();
+    //last seen index of the consumer, saves reads of the shared counter for every code
+    private long cachedHead = 0;
+    private volatile boolean closed = false;
+    //set once the consumer stopped taking codes, so the producer does not wait for space forever
+    private volatile boolean consumerClosed = false;
+
+    //only used by WaitStrategy.BLOCK
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private volatile boolean producerWaiting = false;
+    private volatile boolean consumerWaiting = false;
+
+    /**
+     * @param  capacity
+     *         The amount of codes the ring can hold, a power of two
+     * @param  waitStrategy
+     *         How to wait if the ring is full or empty
+     */
+    KeyRing(int capacity, WaitStrategy waitStrategy) {
+        if(capacity <= 0 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("Capacity has to be a power of two");
+        this.codes = new int[capacity];
+        this.mask = capacity - 1;
+        this.waitStrategy = waitStrategy;
+    }
+
+    /**
+     * Adds a code, waiting while the ring is full. Producer only.
+     *
+     * @param  code
+     *         The code to add
+     * @return Whether the code was added, {@code false} if the consumer is gone
+     *
+     * @throws InterruptedException
+     *         If the thread was interrupted while waiting
+     */
+    boolean put(int code) throws InterruptedException {
+        if(consumerClosed)
+            return false;
+        long index = tail.get();
+        if(index - cachedHead == codes.length) {
+            if(!awaitSpace(index))
+                return false;
+            cachedHead = head.get();
+        }
+        codes[(int) index & mask] = code;
+        publish(tail, index + 1);
+        return true;
+    }
+
+    /**
+     * Takes all available codes, up to the length of {@code dst}, waiting while the ring is empty. Consumer only.
+     *
+     * @param  dst
+     *         The array to take the codes into
+     * @return The amount of codes taken, at least 1, or -1 if the ring is closed and all codes were taken
+     *
+     * @throws InterruptedException
+     *         If the thread was interrupted while waiting
+     */
+    int take(int[] dst) throws InterruptedException {
+        long index = head.get();
+        long available = tail.get();
+        if(index == available) {
+            if(!awaitCodes(index))
+                return -1;
+            available = tail.get();
+        }
+        int amount = (int) Math.min(dst.length, available - index);
+        for(int i = 0; i < amount; i++)
+            dst[i] = codes[(int) (index + i) & mask];
+        publish(head, index + amount);
+        return amount;
+    }
+
+    /**
+     * Marks the end of the codes. Producer only.
+     * <br>The consumer can still take the remaining codes.
+     */
+    void close() {
+        closed = true;
+        if(waitStrategy == WaitStrategy.BLOCK)
+            signal();
+    }
+
+    /**
+     * Marks that no more codes are taken, eg. because the handler failed. Consumer only.
+     * <br>Waiting and later {@link #put(int) puts} of the producer return immediately.
+     */
+    void closeConsumer() {
+        consumerClosed = true;
+        if(waitStrategy == WaitStrategy.BLOCK)
+            signal();
+    }
+
+    private void publish(AtomicLong counter, long value) {
+        if(waitStrategy == WaitStrategy.BLOCK) {
+            //a full write, so either the other side sees the new value or this side sees that it waits
+            counter.set(value);
+            if(counter == tail ? consumerWaiting : producerWaiting)
+                signal();
+        } else {
+            counter.lazySet(value);
+        }
+    }
+
+    //returns false if the consumer is gone
+    private boolean awaitSpace(long index) throws InterruptedException {
+        long parkNanos = 1;
+        int spins = 0;
+        while(index - head.get() == codes.length) {
+            if(consumerClosed)
+                return false;
+            switch(waitStrategy) {
+                case SPIN:
+                    spins = spin(spins);
+                    break;
+                case PARK:
+                    parkNanos = park(parkNanos);
+                    break;
+                case BLOCK:
+                    lock.lock();
+                    try {
+                        producerWaiting = true;
+                        while(index - head.get() == codes.length && !consumerClosed)
+                            changed.await();
+                    } finally {
+                        producerWaiting = false;
+                        lock.unlock();
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    //returns false if the ring was closed without new codes
+    private boolean awaitCodes(long index) throws InterruptedException {
+        long parkNanos = 1;
+        int spins = 0;
+        while(index == tail.get()) {
+            if(closed)
+                //codes added right before closing are visible after reading the flag
+                return index != tail.get();
+            switch(waitStrategy) {
+                case SPIN:
+                    spins = spin(spins);
+                    break;
+                case PARK:
+                    parkNanos = park(parkNanos);
+                    break;
+                case BLOCK:
+                    lock.lock();
+                    try {
+                        consumerWaiting = true;
+                        while(index == tail.get() && !closed)
+                            changed.await();
+                    } finally {
+                        consumerWaiting = false;
+                        lock.unlock();
+                    }
+                    break;
+            }
+        }
+        return true;
+    }
+
+    //returns the new amount of spins
+    private static int spin(int spins) throws InterruptedException {
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        //lets the other side run if both share a core
+        if(spins >= MAX_BUSY_SPINS)
+            Thread.yield();
+        return spins + 1;
+    }
+
+    //parks for the given time and returns the time to park for next
+    private static long park(long parkNanos) throws InterruptedException {
+        LockSupport.parkNanos(parkNanos);
+        if(Thread.interrupted())
+            throw new InterruptedException();
+        return Math.min(parkNanos * 2, MAX_PARK_NANOS);
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
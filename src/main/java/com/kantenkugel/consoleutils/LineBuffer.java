@@ -0,0 +1,235 @@
+package com.kantenkugel.consoleutils;
+
+import java.util.Arrays;
+
+/**
+ * The line of a {@link ConsoleReader#startEditingLoop(java.util.function.Consumer, boolean) line editing loop}
+ * together with a cursor.
+ * <p>
+ * The chars are stored in a gap buffer: the unused space of the array is kept at the cursor position,
+ * so inserting and deleting at the cursor does not move the rest of the line.
+ * Moving the cursor by one char only moves a single char from one side of the gap to the other.
+ * <br>This class is not thread safe.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class LineBuffer implements CharSequence {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private char[] chars;
+    //the gap starts at the cursor, chars after the cursor are stored behind it
+    private int gapStart = 0;
+    private int gapEnd;
+
+    public LineBuffer() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param  initialCapacity
+     *         The number of chars the buffer can hold before it has to grow
+     */
+    public LineBuffer(int initialCapacity) {
+        if(initialCapacity < 1)
+            throw new IllegalArgumentException("Initial capacity has to be positive");
+        chars = new char[initialCapacity];
+        gapEnd = initialCapacity;
+    }
+
+    /**
+     * @return The position of the cursor, between {@code 0} (before the first char) and {@link #length()}
+     */
+    public int getCursor() {
+        return gapStart;
+    }
+
+    /**
+     * Moves the cursor to the given position.
+     *
+     * @param  position
+     *         The new position of the cursor, between {@code 0} and {@link #length()}
+     * @throws IndexOutOfBoundsException
+     *         If the position is outside of the line
+     */
+    public void setCursor(int position) {
+        if(position < 0 || position > length())
+            throw new IndexOutOfBoundsException("Cursor position " + position + " outside of line with length " + length());
+        if(position < gapStart) {
+            //chars between the position and the cursor move behind the gap
+            int moved = gapStart - position;
+            System.arraycopy(chars, position, chars, gapEnd - moved, moved);
+            gapStart = position;
+            gapEnd -= moved;
+        } else if(position > gapStart) {
+            int moved = position - gapStart;
+            System.arraycopy(chars, gapEnd, chars, gapStart, moved);
+            gapStart = position;
+            gapEnd += moved;
+        }
+    }
+
+    /**
+     * @return Whether the cursor moved, {@code false} if it already was at the start of the line
+     */
+    public boolean moveLeft() {
+        if(gapStart == 0)
+            return false;
+        chars[--gapEnd] = chars[--gapStart];
+        return true;
+    }
+
+    /**
+     * @return Whether the cursor moved, {@code false} if it already was at the end of the line
+     */
+    public boolean moveRight() {
+        if(gapEnd == chars.length)
+            return false;
+        chars[gapStart++] = chars[gapEnd++];
+        return true;
+    }
+
+    public void moveHome() {
+        setCursor(0);
+    }
+
+    public void moveEnd() {
+        setCursor(length());
+    }
+
+    /**
+     * Inserts a char at the cursor and moves the cursor behind it.
+     *
+     * @param  c
+     *         The char to insert
+     */
+    public void insert(char c) {
+        ensureGap(1);
+        chars[gapStart++] = c;
+    }
+
+    /**
+     * Inserts text at the cursor and moves the cursor behind it.
+     *
+     * @param  text
+     *         The text to insert
+     */
+    public void insert(CharSequence text) {
+        int length = text.length();
+        ensureGap(length);
+        if(text instanceof String) {
+            ((String) text).getChars(0, length, chars, gapStart);
+        } else {
+            for(int i = 0; i < length; i++)
+                chars[gapStart + i] = text.charAt(i);
+        }
+        gapStart += length;
+    }
+
+    /**
+     * Deletes the char before the cursor, like the backspace key.
+     *
+     * @return Whether a char was deleted, {@code false} if the cursor is at the start of the line
+     */
+    public boolean deleteBeforeCursor() {
+        if(gapStart == 0)
+            return false;
+        gapStart--;
+        return true;
+    }
+
+    /**
+     * Deletes the char after the cursor, like the delete key.
+     *
+     * @return Whether a char was deleted, {@code false} if the cursor is at the end of the line
+     */
+    public boolean deleteAfterCursor() {
+        if(gapEnd == chars.length)
+            return false;
+        gapEnd++;
+        return true;
+    }
+
+    /**
+     * Removes all chars and moves the cursor to the start.
+     */
+    public void clear() {
+        gapStart = 0;
+        gapEnd = chars.length;
+    }
+
+    @Override
+    public int length() {
+        return chars.length - (gapEnd - gapStart);
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length())
+            throw new IndexOutOfBoundsException("Index " + index + " outside of line with length " + length());
+        return index < gapStart ? chars[index] : chars[index + gapEnd - gapStart];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange(start, end);
+        char[] copy = new char[end - start];
+        getChars(start, end, copy, 0);
+        return new String(copy);
+    }
+
+    /**
+     * Copies chars of the line into the given array, like {@link String#getChars(int, int, char[], int)}.
+     *
+     * @param  start
+     *         The index of the first char to copy
+     * @param  end
+     *         The index after the last char to copy
+     * @param  dst
+     *         The array to copy to
+     * @param  dstOff
+     *         The index in {@code dst} to copy the first char to
+     *
+     * @throws IndexOutOfBoundsException
+     *         If the range is not within the line or the chars do not fit into {@code dst}
+     */
+    public void getChars(int start, int end, char[] dst, int dstOff) {
+        checkRange(start, end);
+        if(dstOff < 0 || dstOff + (end - start) > dst.length)
+            throw new IndexOutOfBoundsException("Range " + dstOff + '-' + (dstOff + end - start)
+                    + " outside of array with length " + dst.length);
+        if(start < gapStart) {
+            int before = Math.min(end, gapStart) - start;
+            System.arraycopy(chars, start, dst, dstOff, before);
+            dstOff += before;
+            start = gapStart;
+        }
+        if(end > start)
+            System.arraycopy(chars, start + gapEnd - gapStart, dst, dstOff, end - start);
+    }
+
+    @Override
+    public String toString() {
+        char[] copy = new char[length()];
+        getChars(0, copy.length, copy, 0);
+        return new String(copy);
+    }
+
+    private void checkRange(int start, int end) {
+        if(start < 0 || end > length() || start > end)
+            throw new IndexOutOfBoundsException("Range " + start + '-' + end + " outside of line with length " + length());
+    }
+
+    //grows the array (doubling) so the gap can take the given amount of chars
+    private void ensureGap(int amount) {
+        if(gapEnd - gapStart >= amount)
+            return;
+        int after = chars.length - gapEnd;
+        int newCapacity = Math.max(chars.length * 2, length() + amount);
+        char[] grown = Arrays.copyOf(chars, newCapacity);
+        System.arraycopy(chars, gapEnd, grown, newCapacity - after, after);
+        chars = grown;
+        gapEnd = newCapacity - after;
+    }
+}
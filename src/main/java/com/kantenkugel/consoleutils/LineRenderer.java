@@ -0,0 +1,107 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+
+/**
+ * Draws a line with a cursor, only writing what changed since the last time it was drawn.
+ * <p>
+ * The renderer remembers the drawn text and cursor position. For each update, the text both have in common
+ * at the start is kept. Only the rest is written, followed by erasing leftovers of the previous text,
+ * and the cursor is moved to its new position.
+ * <br>Cursor movement and erasing use ANSI escape sequences if the terminal supports them and they are shorter
+ * than backspaces, spaces or writing the shown text again.
+ * This keeps the output per key stroke small, which matters on slow remote connections.
+ * <p>
+ * A {@link ConsoleReader#startEditingLoop(java.util.function.Consumer, boolean, LineRenderer) line editing loop}
+ * draws its line with a renderer, the {@link AutoCompleter} draws the typed text and its suggestion with one.
+ * It can also be used directly, eg. {@code renderer.render(event.getLine(), event.getCursor())}.
+ * <br>The renderer assumes that it is the only one writing to the line, that every char takes one column
+ * and that the line fits the width of the terminal.
+ * This class is not thread safe.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class LineRenderer {
+    private final StringBuilder drawn = new StringBuilder();
+    private int drawnCursor = 0;
+
+    /**
+     * Updates the line on the terminal.
+     *
+     * @param  line
+     *         The text the line should show
+     * @param  cursor
+     *         The position of the cursor in the text, between {@code 0} and its length
+     *
+     * @throws IOException
+     *         If the terminal could not be written to
+     */
+    public void render(CharSequence line, int cursor) throws IOException {
+        render(line, cursor, TerminalWriter.get());
+    }
+
+    //draws with the given writer, eg. one bound to the terminal of a loop
+    void render(CharSequence line, int cursor, TerminalWriter out) throws IOException {
+        if(cursor < 0 || cursor > line.length())
+            throw new IndexOutOfBoundsException("Cursor position " + cursor + " outside of line with length " + line.length());
+        out.beginBatch();
+        try {
+            update(line, cursor, out);
+        } finally {
+            out.endBatch();
+        }
+    }
+
+    /**
+     * Forgets the drawn line, eg. after the line was finished with a line break.
+     * The next {@link #render(CharSequence, int)} draws the line from the current position of the cursor.
+     */
+    public void reset() {
+        drawn.setLength(0);
+        drawnCursor = 0;
+    }
+
+    /**
+     * @return The text that was drawn last
+     */
+    public CharSequence getDrawn() {
+        return drawn;
+    }
+
+    /**
+     * @return The position of the cursor in the {@link #getDrawn() drawn text}
+     */
+    public int getDrawnCursor() {
+        return drawnCursor;
+    }
+
+    private void update(CharSequence line, int cursor, TerminalWriter out) throws IOException {
+        int common = 0;
+        int max = Math.min(line.length(), drawn.length());
+        while(common < max && line.charAt(common) == drawn.charAt(common))
+            common++;
+        if(common == line.length() && common == drawn.length()) {
+            //only the cursor moved
+            moveCursor(out, drawnCursor, cursor);
+        } else {
+            //the cursor moves to the first difference, from where the new text is written
+            moveCursor(out, drawnCursor, common);
+            for(int i = common; i < line.length(); i++)
+                out.append(line.charAt(i));
+            out.eraseToEnd(drawn.length() - line.length());
+            out.cursorLeft(line.length() - cursor);
+            drawn.setLength(common);
+            for(int i = common; i < line.length(); i++)
+                drawn.append(line.charAt(i));
+        }
+        drawnCursor = cursor;
+    }
+
+    //moves within the drawn text
+    private void moveCursor(TerminalWriter out, int from, int to) throws IOException {
+        if(to < from)
+            out.cursorLeft(from - to);
+        else
+            out.cursorRight(drawn, from, to);
+    }
+}
@@ -0,0 +1,102 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * A handle to an input loop started with {@link ConsoleReader#startLoopAsync(Consumer, boolean, Executor)}
+ * or {@link ConsoleReader#startBufferedLoopAsync(Consumer, WaitStrategy)}.
+ * <p>
+ * Running the handle (or calling {@link #cancel()}) stops the loop.
+ * A read that is waiting for input is {@link TerminalBackend#wakeup() woken up}, so the loop ends
+ * and the console mode is restored right away instead of with the next key stroke.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class LoopHandle implements Runnable {
+    private final AtomicBoolean shouldRun = new AtomicBoolean(true);
+    private final CountDownLatch finished;
+    private final TerminalBackend backend;
+
+    LoopHandle(TerminalBackend backend) {
+        this(backend, 1);
+    }
+
+    //the loop has ended once all of its threads called setFinished()
+    LoopHandle(TerminalBackend backend, int threads) {
+        this.backend = backend;
+        this.finished = new CountDownLatch(threads);
+    }
+
+    /**
+     * Stops the loop. Does nothing if it was already stopped.
+     * <br>Use {@link #await()} to wait until it has ended.
+     *
+     * @throws UncheckedIOException
+     *         If a waiting read could not be woken up
+     */
+    public void cancel() {
+        if(!shouldRun.getAndSet(false))
+            return;
+        try {
+            backend.wakeup();
+        } catch(IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Stops the loop, same as {@link #cancel()}.
+     */
+    @Override
+    public void run() {
+        cancel();
+    }
+
+    /**
+     * @return Whether the loop has not ended yet.
+     *         This stays {@code true} after {@link #cancel()} until the loop has restored the console mode
+     */
+    public boolean isRunning() {
+        return finished.getCount() > 0;
+    }
+
+    /**
+     * Waits until the loop has ended, either by {@link #cancel()}, by a handler or by an error.
+     *
+     * @throws InterruptedException
+     *         If the current thread was interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        finished.await();
+    }
+
+    /**
+     * Waits until the loop has ended, at most for the given time.
+     *
+     * @param  timeout
+     *         The maximum time to wait
+     * @param  unit
+     *         The unit of {@code timeout}
+     * @return Whether the loop has ended
+     *
+     * @throws InterruptedException
+     *         If the current thread was interrupted while waiting
+     */
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        return finished.await(timeout, unit);
+    }
+
+    AtomicBoolean getShouldRun() {
+        return shouldRun;
+    }
+
+    void setFinished() {
+        finished.countDown();
+    }
+}
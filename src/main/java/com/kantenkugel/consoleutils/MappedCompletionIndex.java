@@ -0,0 +1,152 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A {@link CompletionIndex} that answers lookups directly from a memory mapped file.
+ * <p>
+ * The file is written by {@link CompactCompletionIndex#writeTo(Path)} and opened with {@link #open(Path)}.
+ * Opening only maps the file, so even huge dictionaries are available instantly,
+ * and multiple processes using the same file share its pages.
+ * <p>
+ * File layout (big endian):
+ * <pre>
+ * int     magic ("CIDX")
+ * int     version
+ * int     stateCount
+ * int     edgeCount
+ * long[]  final states, one bit per state ((stateCount + 63) / 64 longs)
+ * int[]   edge start of each state (stateCount + 1 ints)
+ * int[]   edge targets (edgeCount ints)
+ * char[]  edge chars, sorted per state (edgeCount chars)
+ * </pre>
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class MappedCompletionIndex implements CompletionIndex {
+    static final int MAGIC = 0x43494458; //CIDX
+    static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private final LongBuffer finalStates;
+    private final IntBuffer edgeStart;
+    private final IntBuffer edgeTargets;
+    private final CharBuffer edgeChars;
+
+    private MappedCompletionIndex(LongBuffer finalStates, IntBuffer edgeStart, IntBuffer edgeTargets,
+                                  CharBuffer edgeChars) {
+        this.finalStates = finalStates;
+        this.edgeStart = edgeStart;
+        this.edgeTargets = edgeTargets;
+        this.edgeChars = edgeChars;
+    }
+
+    /**
+     * Maps an index file written by {@link CompactCompletionIndex#writeTo(Path)}.
+     * <br>The mapping stays valid after the file is closed, until the returned index gets garbage collected.
+     *
+     * @param  file
+     *         The index file
+     * @return The index answering lookups from the file
+     *
+     * @throws IOException
+     *         If the file could not be read or is no valid index file
+     */
+    public static MappedCompletionIndex open(Path file) throws IOException {
+        try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size < HEADER_SIZE || size > Integer.MAX_VALUE)
+                throw new IOException("Invalid completion index file size: " + size);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if(buffer.getInt() != MAGIC)
+                throw new IOException("Not a completion index file: " + file);
+            int version = buffer.getInt();
+            if(version != VERSION)
+                throw new IOException("Unsupported completion index version " + version + ": " + file);
+            int stateCount = buffer.getInt();
+            int edgeCount = buffer.getInt();
+            if(stateCount < 1 || edgeCount < 0 || getFileSize(stateCount, edgeCount) != size)
+                throw new IOException("Corrupt completion index file: " + file);
+
+            LongBuffer finalStates = section(buffer, ((stateCount + 63) >>> 6) * 8).asLongBuffer();
+            IntBuffer edgeStart = section(buffer, (stateCount + 1) * 4).asIntBuffer();
+            IntBuffer edgeTargets = section(buffer, edgeCount * 4).asIntBuffer();
+            CharBuffer edgeChars = section(buffer, edgeCount * 2).asCharBuffer();
+            if(edgeStart.get(0) != 0 || edgeStart.get(stateCount) != edgeCount)
+                throw new IOException("Corrupt completion index file: " + file);
+            return new MappedCompletionIndex(finalStates, edgeStart, edgeTargets, edgeChars);
+        }
+    }
+
+    static int getFileSize(int stateCount, int edgeCount) {
+        long size = HEADER_SIZE + (long) ((stateCount + 63) >>> 6) * 8 + (stateCount + 1L) * 4 + edgeCount * 6L;
+        if(size > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Index too big for a single file");
+        return (int) size;
+    }
+
+    private static ByteBuffer section(ByteBuffer buffer, int length) {
+        ByteBuffer section = buffer.slice();
+        section.limit(length);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+
+    @Override
+    public int root() {
+        return 0;
+    }
+
+    @Override
+    public int next(int state, char c) {
+        //binary search within the edges of the state
+        int low = edgeStart.get(state);
+        int high = edgeStart.get(state + 1) - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = edgeChars.get(mid);
+            if(midChar < c)
+                low = mid + 1;
+            else if(midChar > c)
+                high = mid - 1;
+            else
+                return edgeTargets.get(mid);
+        }
+        return NO_STATE;
+    }
+
+    @Override
+    public boolean isFinal(int state) {
+        return (finalStates.get(state >>> 6) & (1L << state)) != 0;
+    }
+
+    @Override
+    public int childCount(int state) {
+        return edgeStart.get(state + 1) - edgeStart.get(state);
+    }
+
+    @Override
+    public char childChar(int state, int index) {
+        return edgeChars.get(edgeStart.get(state) + index);
+    }
+
+    @Override
+    public int child(int state, int index) {
+        return edgeTargets.get(edgeStart.get(state) + index);
+    }
+
+    /**
+     * @return The amount of states of the automaton
+     */
+    public int getStateCount() {
+        return edgeStart.limit() - 1;
+    }
+}
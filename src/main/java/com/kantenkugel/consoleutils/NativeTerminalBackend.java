@@ -0,0 +1,109 @@
+package com.kantenkugel.consoleutils;
+
+import biz.source_code.utils.RawConsoleInput;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+
+/**
+ * The default {@link TerminalBackend}, reading from the native console via {@link RawConsoleInput}
+ * and writing to {@code System.out}.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public final class NativeTerminalBackend implements TerminalBackend {
+    private static final NativeTerminalBackend INSTANCE = new NativeTerminalBackend();
+
+    /**
+     * @return The native terminal backend
+     */
+    public static NativeTerminalBackend getInstance() {
+        return INSTANCE;
+    }
+
+    private NativeTerminalBackend() {}
+
+    @Override
+    public int read(boolean wait) throws IOException {
+        return RawConsoleInput.read(wait);
+    }
+
+    @Override
+    public int read(char[] dst, int off, int len, boolean wait) throws IOException {
+        return RawConsoleInput.read(dst, off, len, wait);
+    }
+
+    @Override
+    public int read(long timeoutMillis) throws IOException {
+        return RawConsoleInput.read(timeoutMillis);
+    }
+
+    @Override
+    public int read(char[] dst, int off, int len, long timeoutMillis) throws IOException {
+        //waits with poll() on Unix instead of checking repeatedly
+        return RawConsoleInput.read(dst, off, len, timeoutMillis);
+    }
+
+    @Override
+    public void wakeup() throws IOException {
+        RawConsoleInput.wakeup();
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        return RawConsoleInput.readLine();
+    }
+
+    @Override
+    public boolean isInteractive() throws IOException {
+        return RawConsoleInput.isConsole();
+    }
+
+    @Override
+    public boolean supportsBracketedPaste() throws IOException {
+        //terminal emulators on Unix either support it or ignore the mode switch, the Windows console shows it
+        return !System.getProperty("os.name").startsWith("Windows") && RawConsoleInput.isConsole();
+    }
+
+    @Override
+    public boolean supportsAnsiEscapes() throws IOException {
+        //the Windows console only interprets them if virtual terminal processing is enabled, which is not done here
+        return !System.getProperty("os.name").startsWith("Windows") && RawConsoleInput.isConsole();
+    }
+
+    @Override
+    public void unread(char[] src, int off, int len) {
+        RawConsoleInput.unread(src, off, len);
+    }
+
+    @Override
+    public void write(byte[] src, int off, int len) throws IOException {
+        //resolved on every write, so System.setOut is respected
+        PrintStream out = System.out;
+        out.write(src, off, len);
+        //PrintStream does not throw, it only remembers errors
+        if(out.checkError())
+            throw new IOException("Writing to System.out failed");
+    }
+
+    @Override
+    public Charset getCharset() {
+        return Charset.defaultCharset();
+    }
+
+    @Override
+    public void enterRawMode() throws IOException {
+        RawConsoleInput.enterRawMode();
+    }
+
+    @Override
+    public void leaveRawMode() throws IOException {
+        RawConsoleInput.leaveRawMode();
+    }
+
+    @Override
+    public void resetConsoleMode() throws IOException {
+        RawConsoleInput.resetConsoleMode();
+    }
+}
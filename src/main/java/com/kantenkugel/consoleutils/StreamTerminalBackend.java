@@ -0,0 +1,96 @@
+package com.kantenkugel.consoleutils;
+
+import biz.source_code.utils.RawConsoleInput;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+/**
+ * A {@link TerminalBackend} reading from an {@link InputStream} and writing to an {@link OutputStream},
+ * eg. the streams of a socket or a pipe.
+ * <p>
+ * The streams are expected to already behave like a terminal in raw mode: the remote side sends every key stroke
+ * right away and neither echoes nor edits the line, as the console utilities write all echo themselves.
+ * So switching the terminal mode does nothing.
+ * <br>Reading and writing may happen on different threads, but only one thread may read at once.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class StreamTerminalBackend implements TerminalBackend {
+    private final InputStream in;
+    private final OutputStream out;
+    private final Charset charset;
+    //decoding, pushback and line reading are shared with the console input
+    private final RawConsoleInput.BufferedInput input;
+    private final char[] singleChar = new char[1];
+
+    /**
+     * Creates a new backend for the given streams.
+     *
+     * @param  in
+     *         The stream to read input from
+     * @param  out
+     *         The stream to write output to
+     * @param  charset
+     *         The charset of both streams
+     */
+    public StreamTerminalBackend(InputStream in, OutputStream out, Charset charset) {
+        this.in = in;
+        this.out = out;
+        this.charset = charset;
+        this.input = new RawConsoleInput.BufferedInput(charset, 4096);
+    }
+
+    @Override
+    public int read(boolean wait) throws IOException {
+        synchronized(in) {
+            int amount = input.read(in, singleChar, 0, 1, wait);
+            return amount > 0 ? singleChar[0] : amount;
+        }
+    }
+
+    @Override
+    public int read(char[] dst, int off, int len, boolean wait) throws IOException {
+        synchronized(in) {
+            return input.read(in, dst, off, len, wait);
+        }
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        synchronized(in) {
+            return input.readLine(in);
+        }
+    }
+
+    @Override
+    public void unread(char[] src, int off, int len) {
+        synchronized(in) {
+            input.unread(src, off, len);
+        }
+    }
+
+    @Override
+    public void write(byte[] src, int off, int len) throws IOException {
+        synchronized(out) {
+            out.write(src, off, len);
+            out.flush();
+        }
+    }
+
+    @Override
+    public Charset getCharset() {
+        return charset;
+    }
+
+    @Override
+    public void enterRawMode() {}
+
+    @Override
+    public void leaveRawMode() {}
+
+    @Override
+    public void resetConsoleMode() {}
+}
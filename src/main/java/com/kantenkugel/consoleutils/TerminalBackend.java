@@ -0,0 +1,259 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The terminal the console utilities read input from and write output to.
+ * <p>
+ * By default, this is the native console ({@link NativeTerminalBackend}).
+ * Another backend can be set with {@link ConsoleUtils#setTerminalBackend(TerminalBackend)},
+ * eg. an {@link InMemoryTerminalBackend} for scripted input or a {@link StreamTerminalBackend} for sockets or pipes.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public interface TerminalBackend {
+    /**
+     * Returned by the read methods if no input is available and they were told not to wait.
+     */
+    int NO_INPUT = -2;
+
+    /**
+     * The longest time in milliseconds the default implementation of {@link #read(char[], int, int, long)}
+     * sleeps between checks for input.
+     */
+    long MAX_POLL_INTERVAL = 20;
+
+    /**
+     * Reads a single char.
+     *
+     * @param  wait
+     *         Whether to wait for input if none is available
+     * @return The char, -1 on end of input or {@link #NO_INPUT} if no input is available and {@code wait} is false
+     *         or the read was {@link #wakeup() woken up}
+     *
+     * @throws IOException
+     *         If the input could not be read
+     */
+    int read(boolean wait) throws IOException;
+
+    /**
+     * Reads as many chars as are available, up to {@code len}.
+     *
+     * @param  dst
+     *         The array to read into
+     * @param  off
+     *         The index in {@code dst} to start at
+     * @param  len
+     *         The maximum amount of chars to read, must be at least 1
+     * @param  wait
+     *         Whether to wait for input if none is available
+     * @return The amount of chars read, -1 on end of input or {@link #NO_INPUT} if no input is available
+     *         and {@code wait} is false or the read was {@link #wakeup() woken up}
+     *
+     * @throws IOException
+     *         If the input could not be read
+     */
+    int read(char[] dst, int off, int len, boolean wait) throws IOException;
+
+    /**
+     * Reads a single char, waiting at most the given time for it.
+     *
+     * @param  timeoutMillis
+     *         The maximum time to wait for input in milliseconds,
+     *         {@code 0} to return immediately or a negative value to wait without a limit
+     * @return The char, -1 on end of input or {@link #NO_INPUT} if no input is available within the timeout
+     *         or the read was {@link #wakeup() woken up}
+     *
+     * @throws IOException
+     *         If the input could not be read
+     * @see    #read(char[], int, int, long)
+     */
+    default int read(long timeoutMillis) throws IOException {
+        if(timeoutMillis < 0)
+            return read(true);
+        char[] single = new char[1];
+        int amount = read(single, 0, 1, timeoutMillis);
+        return amount > 0 ? single[0] : amount;
+    }
+
+    /**
+     * Reads as many chars as are available, up to {@code len}, waiting at most the given time for the first one.
+     * <p>
+     * The default implementation checks for input in increasing intervals of up to {@value #MAX_POLL_INTERVAL} ms,
+     * backends that can wait for input directly should override it.
+     *
+     * @param  dst
+     *         The array to read into
+     * @param  off
+     *         The index in {@code dst} to start at
+     * @param  len
+     *         The maximum amount of chars to read, must be at least 1
+     * @param  timeoutMillis
+     *         The maximum time to wait for input in milliseconds,
+     *         {@code 0} to return immediately or a negative value to wait without a limit
+     * @return The amount of chars read, -1 on end of input or {@link #NO_INPUT} if no input is available
+     *         within the timeout or the read was {@link #wakeup() woken up}
+     *
+     * @throws InterruptedIOException
+     *         If the thread was interrupted while waiting
+     * @throws IOException
+     *         If the input could not be read
+     */
+    default int read(char[] dst, int off, int len, long timeoutMillis) throws IOException {
+        if(timeoutMillis < 0)
+            return read(dst, off, len, true);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        long interval = 1;
+        int amount;
+        while((amount = read(dst, off, len, false)) == NO_INPUT) {
+            long remaining = deadline - System.nanoTime();
+            if(remaining <= 0)
+                break;
+            try {
+                //rounded up, so the timeout is not reported early
+                Thread.sleep(Math.min(interval, TimeUnit.NANOSECONDS.toMillis(remaining + 999999)));
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for input");
+            }
+            interval = Math.min(interval * 2, MAX_POLL_INTERVAL);
+        }
+        return amount;
+    }
+
+    /**
+     * Ends a read that is waiting for input in another thread, so it returns {@link #NO_INPUT}.
+     * <br>If no read is waiting, the next read returns {@link #NO_INPUT} immediately.
+     * <p>
+     * This is used to stop {@link ConsoleReader} loops right away.
+     * The default implementation does nothing, so waiting reads only end with the next input.
+     *
+     * @throws IOException
+     *         If the waiting read could not be woken up
+     */
+    default void wakeup() throws IOException {}
+
+    /**
+     * Reads a whole line.
+     * <p>
+     * This is used instead of the char based reads if the backend is not {@link #isInteractive() interactive}.
+     * The default implementation reads char by char, backends should override it with a buffered implementation.
+     *
+     * @return The line without the line terminator ({@code \n} or {@code \r\n}), or {@code null} on end of input
+     *
+     * @throws IOException
+     *         If the input could not be read
+     */
+    default String readLine() throws IOException {
+        StringBuilder b = new StringBuilder();
+        int c;
+        while((c = read(true)) != -1 && c != '\n')
+            b.append((char) c);
+        if(c == -1 && b.length() == 0)
+            return null;
+        if(b.length() > 0 && b.charAt(b.length() - 1) == '\r')
+            b.setLength(b.length() - 1);
+        return b.toString();
+    }
+
+    /**
+     * Returns whether the input comes from a user at a terminal.
+     * <p>
+     * If not (eg. piped input), input is read line by line with {@link #readLine()}, without any echo,
+     * placeholders or completion suggestions.
+     *
+     * @return Whether the input is interactive
+     *
+     * @throws IOException
+     *         If the terminal could not be checked
+     */
+    default boolean isInteractive() throws IOException {
+        return true;
+    }
+
+    /**
+     * Returns whether the terminal understands bracketed paste mode, where pasted text is surrounded by markers.
+     * <br>If so, pasted text is passed to {@link ConsoleReader} handlers at once.
+     *
+     * @return Whether bracketed paste mode may be enabled
+     *
+     * @throws IOException
+     *         If the terminal could not be checked
+     */
+    default boolean supportsBracketedPaste() throws IOException {
+        return false;
+    }
+
+    /**
+     * Returns whether the terminal understands ANSI escape sequences for cursor movement and erasing.
+     * <br>If so, output is redrawn with them where they are shorter than overwriting text with spaces and backspaces.
+     *
+     * @return Whether ANSI escape sequences may be written
+     *
+     * @throws IOException
+     *         If the terminal could not be checked
+     */
+    default boolean supportsAnsiEscapes() throws IOException {
+        return false;
+    }
+
+    /**
+     * Pushes chars back to the input, so they are returned again by the next reads.
+     * Chars pushed back by later calls are read first.
+     *
+     * @param  src
+     *         The array containing the chars
+     * @param  off
+     *         The index of the first char in {@code src}
+     * @param  len
+     *         The amount of chars
+     */
+    void unread(char[] src, int off, int len);
+
+    /**
+     * Writes and flushes output that is encoded with the {@link #getCharset() charset} of this backend.
+     *
+     * @param  src
+     *         The array containing the encoded output
+     * @param  off
+     *         The index of the first byte in {@code src}
+     * @param  len
+     *         The amount of bytes
+     *
+     * @throws IOException
+     *         If the output could not be written, eg. because the remote side of a stream disconnected
+     */
+    void write(byte[] src, int off, int len) throws IOException;
+
+    /**
+     * @return The charset output has to be encoded with
+     */
+    Charset getCharset();
+
+    /**
+     * Switches to raw mode (no echo, no line buffering) until {@link #leaveRawMode()} is called.
+     *
+     * @throws IOException
+     *         If the terminal mode could not be changed
+     */
+    void enterRawMode() throws IOException;
+
+    /**
+     * Ends raw mode started by {@link #enterRawMode()}.
+     *
+     * @throws IOException
+     *         If the terminal mode could not be changed
+     */
+    void leaveRawMode() throws IOException;
+
+    /**
+     * Resets the terminal to normal line mode with echo.
+     *
+     * @throws IOException
+     *         If the terminal mode could not be changed
+     */
+    void resetConsoleMode() throws IOException;
+}
@@ -0,0 +1,253 @@
+package com.kantenkugel.consoleutils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Collects console output in a reusable buffer and writes it to the {@link ConsoleUtils#getTerminalBackend() terminal}
+ * with a single write.
+ * <p>
+ * Output appended within a batch ({@link #beginBatch()} / {@link #endBatch()}) is written once the outermost batch
+ * ends, so all output caused by one input event reaches the terminal in one go.
+ * <br>Output appended outside of a batch is written immediately.
+ * <p>
+ * The cursor movement and erase methods pick the shortest output for the distance, using ANSI escape sequences
+ * only if the terminal {@link TerminalBackend#supportsAnsiEscapes() supports them}.
+ * <p>
+ * Appending throws an {@link IOException} if the output is written right away and the terminal could not be written to,
+ * ending a batch if its output could not be written. Output that failed is discarded.
+ * <p>
+ * Each thread has its own writer for the current terminal, see {@link #get()}.
+ * <br>Output that belongs to a specific terminal, no matter which one is current, goes through a writer
+ * {@link #forBackend(TerminalBackend) bound to it}.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+final class TerminalWriter {
+    private static final ThreadLocal<TerminalWriter> WRITERS = ThreadLocal.withInitial(() -> new TerminalWriter(null));
+    private static final String ERASE_TO_END = "\u001B[K";
+
+    private CharsetEncoder encoder = null;
+    private CharBuffer chars = CharBuffer.allocate(256);
+    private ByteBuffer bytes = ByteBuffer.allocate(512);
+    private int batchDepth = 0;
+    //null to write to the current terminal
+    private final TerminalBackend boundBackend;
+    //the backend the ANSI support was checked for
+    private TerminalBackend ansiBackend = null;
+    private boolean ansi = false;
+
+    static TerminalWriter get() {
+        return WRITERS.get();
+    }
+
+    /**
+     * Creates a writer that always writes to the given terminal, even if another one is
+     * {@link ConsoleUtils#setTerminalBackend(TerminalBackend) set} later on.
+     * <br>Unlike the writers of {@link #get()}, it may only be used by one thread at once.
+     *
+     * @param  backend
+     *         The terminal to write to
+     * @return A new writer for the terminal
+     */
+    static TerminalWriter forBackend(TerminalBackend backend) {
+        return new TerminalWriter(backend);
+    }
+
+    private TerminalWriter(TerminalBackend boundBackend) {
+        this.boundBackend = boundBackend;
+    }
+
+    void beginBatch() {
+        batchDepth++;
+    }
+
+    void endBatch() throws IOException {
+        if(batchDepth > 0 && --batchDepth == 0)
+            flush();
+    }
+
+    TerminalWriter append(char c) throws IOException {
+        ensureCapacity(1);
+        chars.put(c);
+        return flushIfNotBatching();
+    }
+
+    TerminalWriter append(CharSequence s) throws IOException {
+        ensureCapacity(s.length());
+        for(int i = 0; i < s.length(); i++)
+            chars.put(s.charAt(i));
+        return flushIfNotBatching();
+    }
+
+    TerminalWriter repeat(char c, int amount) throws IOException {
+        if(amount <= 0)
+            return this;
+        ensureCapacity(amount);
+        for(int i = 0; i < amount; i++)
+            chars.put(c);
+        return flushIfNotBatching();
+    }
+
+    /**
+     * Moves the cursor to the left, with backspaces or an ANSI escape sequence, whichever is shorter.
+     *
+     * @param  amount
+     *         The amount of columns to move
+     * @return This writer for chaining
+     */
+    TerminalWriter cursorLeft(int amount) throws IOException {
+        if(amount <= 0)
+            return this;
+        if(amount > csiLength(amount) && isAnsi())
+            return csi(amount, 'D');
+        return repeat(CharConstants.CHAR_BACKSPACE, amount);
+    }
+
+    /**
+     * Moves the cursor to the right over text that is already shown, either by writing that text again or with an ANSI
+     * escape sequence, whichever is shorter.
+     *
+     * @param  shown
+     *         The text shown on the line
+     * @param  from
+     *         The index in {@code shown} the cursor is at
+     * @param  to
+     *         The index in {@code shown} to move the cursor to
+     * @return This writer for chaining
+     */
+    TerminalWriter cursorRight(CharSequence shown, int from, int to) throws IOException {
+        int amount = to - from;
+        if(amount <= 0)
+            return this;
+        if(amount > csiLength(amount) && isAnsi())
+            return csi(amount, 'C');
+        ensureCapacity(amount);
+        for(int i = from; i < to; i++)
+            chars.put(shown.charAt(i));
+        return flushIfNotBatching();
+    }
+
+    /**
+     * Erases the text behind the cursor, without moving it.
+     *
+     * @param  amount
+     *         The amount of columns that are shown behind the cursor
+     * @return This writer for chaining
+     */
+    TerminalWriter eraseToEnd(int amount) throws IOException {
+        if(amount <= 0)
+            return this;
+        //overwriting with spaces takes two chars per column, the escape sequence three in total
+        if(amount * 2 > ERASE_TO_END.length() && isAnsi())
+            return append(ERASE_TO_END);
+        return repeat(' ', amount).repeat(CharConstants.CHAR_BACKSPACE, amount);
+    }
+
+    /**
+     * Erases text before the cursor and moves the cursor to its start, like pressing backspace {@code amount} times.
+     *
+     * @param  amount
+     *         The amount of columns to erase
+     * @return This writer for chaining
+     */
+    TerminalWriter erase(int amount) throws IOException {
+        if(amount <= 0)
+            return this;
+        if(amount * 3 > Math.min(amount, csiLength(amount)) + ERASE_TO_END.length() && isAnsi())
+            return cursorLeft(amount).append(ERASE_TO_END);
+        ensureCapacity(amount * 3);
+        for(int i = 0; i < amount; i++)
+            chars.put(CharConstants.CHAR_BACKSPACE).put(' ').put(CharConstants.CHAR_BACKSPACE);
+        return flushIfNotBatching();
+    }
+
+    void flush() throws IOException {
+        if(chars.position() == 0)
+            return;
+        TerminalBackend backend = backend();
+        Charset charset = backend.getCharset();
+        if(encoder == null || !encoder.charset().equals(charset)) {
+            encoder = charset.newEncoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        chars.flip();
+        bytes.clear();
+        encoder.reset();
+        while(encoder.encode(chars, bytes, true).isOverflow())
+            bytes = grow(bytes);
+        while(encoder.flush(bytes).isOverflow())
+            bytes = grow(bytes);
+        chars.clear();
+        backend.write(bytes.array(), 0, bytes.position());
+    }
+
+    //whether the current terminal understands ANSI escape sequences, only checked again if the backend changes
+    private boolean isAnsi() {
+        TerminalBackend backend = backend();
+        if(backend != ansiBackend) {
+            try {
+                ansi = backend.supportsAnsiEscapes();
+            } catch(IOException e) {
+                ansi = false;
+            }
+            ansiBackend = backend;
+        }
+        return ansi;
+    }
+
+    private TerminalBackend backend() {
+        return boundBackend != null ? boundBackend : ConsoleUtils.getTerminalBackend();
+    }
+
+    //writes ESC [ amount command without creating a String for the number
+    private TerminalWriter csi(int amount, char command) throws IOException {
+        int digits = csiLength(amount) - 3;
+        ensureCapacity(digits + 3);
+        chars.put(CharConstants.CHAR_ESCAPE).put('[');
+        int divisor = 1;
+        for(int i = 1; i < digits; i++)
+            divisor *= 10;
+        for(; divisor > 0; divisor /= 10)
+            chars.put((char) ('0' + amount / divisor % 10));
+        chars.put(command);
+        return flushIfNotBatching();
+    }
+
+    //length of ESC [ amount command
+    private static int csiLength(int amount) {
+        int digits = 1;
+        while(amount >= 10) {
+            amount /= 10;
+            digits++;
+        }
+        return digits + 3;
+    }
+
+    private TerminalWriter flushIfNotBatching() throws IOException {
+        if(batchDepth == 0)
+            flush();
+        return this;
+    }
+
+    private void ensureCapacity(int additional) {
+        if(chars.remaining() < additional) {
+            CharBuffer bigger = CharBuffer.allocate(Math.max(chars.capacity() * 2, chars.position() + additional));
+            chars.flip();
+            bigger.put(chars);
+            chars = bigger;
+        }
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer) {
+        ByteBuffer bigger = ByteBuffer.allocate(buffer.capacity() * 2);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
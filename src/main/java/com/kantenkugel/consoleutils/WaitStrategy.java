@@ -0,0 +1,27 @@
+package com.kantenkugel.consoleutils;
+
+import java.util.function.Consumer;
+
+/**
+ * How the threads of a buffered loop wait for each other,
+ * see {@link ConsoleReader#startBufferedLoopAsync(Consumer, WaitStrategy)}.
+ *
+ * @author Kantenkugel (Michael Ritter)
+ */
+public enum WaitStrategy {
+    /**
+     * Checks for new input in a busy loop, yielding to other threads after a few checks.
+     * <br>Lowest latency, but keeps a core busy while waiting.
+     */
+    SPIN,
+    /**
+     * Parks the waiting thread for increasing periods of up to a millisecond between checks.
+     * <br>Little CPU usage and no signalling costs for the reader, but up to a millisecond of latency.
+     */
+    PARK,
+    /**
+     * Blocks the waiting thread until it is signalled.
+     * <br>No CPU usage while waiting, the reader only signals if the handler thread actually waits.
+     */
+    BLOCK
+}
@@ -0,0 +1,73 @@
+package biz.source_code.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class DecoderTests {
+    private static final String TEXT = "h\u00E9llo w\u00F6rld \u20AC \uD83D\uDE00!";
+
+    private static String decodeInChunks(Charset charset, byte[] input, int chunkSize, int outSize) {
+        RawConsoleInput.Decoder decoder = RawConsoleInput.Decoder.forCharset(charset);
+        StringBuilder b = new StringBuilder();
+        char[] out = new char[outSize];
+        int pos = 0;
+        while(pos < input.length || decoder.hasPendingChar()) {
+            int end = Math.min(input.length, pos + chunkSize);
+            int amount = decoder.decode(input, pos, end, out, 0, out.length);
+            b.append(out, 0, amount);
+            pos = decoder.position();
+        }
+        assertFalse("Decoder should not have remaining partial input", decoder.hasPartialInput());
+        return b.toString();
+    }
+
+    @Test
+    public void decodesUtf8() {
+        byte[] input = TEXT.getBytes(StandardCharsets.UTF_8);
+        assertEquals("Decoding all input at once mismatches", TEXT,
+                decodeInChunks(StandardCharsets.UTF_8, input, input.length, 64));
+    }
+
+    @Test
+    public void decodesUtf8ByteByByte() {
+        byte[] input = TEXT.getBytes(StandardCharsets.UTF_8);
+        assertEquals("Decoding single bytes into single chars mismatches", TEXT,
+                decodeInChunks(StandardCharsets.UTF_8, input, 1, 1));
+    }
+
+    @Test
+    public void keepsIncompleteCharacter() {
+        RawConsoleInput.Decoder decoder = RawConsoleInput.Decoder.forCharset(StandardCharsets.UTF_8);
+        byte[] input = "\u20AC".getBytes(StandardCharsets.UTF_8);
+        char[] out = new char[4];
+        assertEquals("No char should be decoded from incomplete input", 0, decoder.decode(input, 0, 2, out, 0, 4));
+        assertTrue("Decoder should have partial input", decoder.hasPartialInput());
+        assertEquals("Last byte should complete the char", 1, decoder.decode(input, 2, 3, out, 0, 4));
+        assertEquals("Decoded char mismatches", '\u20AC', out[0]);
+    }
+
+    @Test
+    public void replacesMalformedInput() {
+        byte[] input = {'a', (byte) 0xC3, 'b', (byte) 0xFF, 'c'};
+        assertEquals("Malformed bytes should be decoded to the invalid key", "a\uFFFEb\uFFFEc",
+                decodeInChunks(StandardCharsets.UTF_8, input, input.length, 16));
+    }
+
+    @Test
+    public void decodesOtherCharsets() {
+        String text = "h\u00E9llo w\u00F6rld";
+        for(Charset charset : new Charset[]{StandardCharsets.ISO_8859_1, StandardCharsets.UTF_16BE, Charset.forName("windows-1252")}) {
+            byte[] input = text.getBytes(charset);
+            assertEquals("Decoding with " + charset + " mismatches", text, decodeInChunks(charset, input, 3, 2));
+        }
+    }
+}
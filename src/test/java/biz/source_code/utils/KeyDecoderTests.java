@@ -0,0 +1,67 @@
+package biz.source_code.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class KeyDecoderTests {
+    private final RawConsoleInput.KeyDecoder decoder = new RawConsoleInput.KeyDecoder();
+
+    private String decode(String input) {
+        char[] src = input.toCharArray();
+        char[] dst = new char[src.length + 8];
+        int amount = decoder.decode(src, 0, src.length, dst, 0, dst.length);
+        assertEquals("All input should be consumed", src.length, decoder.position());
+        return new String(dst, 0, amount);
+    }
+
+    @Test
+    public void convertsKeySequences() {
+        assertEquals("Arrow keys mismatch", "a\uE048\uE050\uE04D\uE04Bb", decode("a\u001B[A\u001B[B\u001BOC\u001B[Db"));
+        assertEquals("Editing keys mismatch", "\uE047\uE04F\uE052\uE053\uE049\uE051",
+                decode("\u001B[H\u001B[4~\u001B[2~\u001B[3~\u001B[5~\u001B[6~"));
+        assertEquals("Function keys mismatch", "\uE03B\uE03F\uE043\uE044\uE086\uE03B",
+                decode("\u001BOP\u001B[15~\u001B[20~\u001B[21~\u001B[24~\u001B[[A"));
+        assertEquals("Modified keys mismatch", "\uE08D\uE073\uE00F", decode("\u001B[1;5A\u001B[1;5D\u001B[Z"));
+        assertFalse("Nothing should be held", decoder.isHolding());
+    }
+
+    @Test
+    public void passesUnknownSequencesOn() {
+        assertEquals("Bracketed paste marker should be unchanged", "\u001B[200~x", decode("\u001B[200~x"));
+        assertEquals("Alt + key should be unchanged", "\u001Bx", decode("\u001Bx"));
+        assertEquals("Escape should start a new sequence", "\u001B\uE048", decode("\u001B\u001B[A"));
+        assertEquals("Non-ASCII chars should end a sequence", "\u001B[\u00E4", decode("\u001B[\u00E4"));
+    }
+
+    @Test
+    public void holdsIncompleteSequences() {
+        assertEquals("Start of sequence should be held", "a", decode("a\u001B[1"));
+        assertTrue("Decoder should hold the start", decoder.isHolding());
+        assertEquals("Rest of the sequence should complete it", "\uE08D", decode(";5A"));
+        assertEquals("Escape key should be held", "", decode("\u001B"));
+        decoder.releaseHeld();
+        assertFalse("Nothing should be held after releasing", decoder.isHolding());
+        assertTrue("Released chars should be pending", decoder.hasReleasedChars());
+        assertEquals("Released escape should be passed on", "\u001B", decode(""));
+    }
+
+    @Test
+    public void stopsWhenOutputIsFull() {
+        char[] src = "\u001Bx\u001B[A".toCharArray();
+        char[] dst = new char[1];
+        StringBuilder b = new StringBuilder();
+        int pos = 0;
+        while(pos < src.length || decoder.hasReleasedChars()) {
+            int amount = decoder.decode(src, pos, src.length, dst, 0, dst.length);
+            pos = decoder.position();
+            b.append(dst, 0, amount);
+        }
+        assertEquals("Output mismatches", "\u001Bx\uE048", b.toString());
+    }
+}
@@ -0,0 +1,51 @@
+package biz.source_code.utils;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class RawConsoleInputTests {
+    private InputStream originalIn;
+
+    @Before
+    public void requirePipedInput() throws IOException {
+        //piped input is read from System.in on Unix only
+        Assume.assumeFalse(System.getProperty("os.name").startsWith("Windows"));
+        Assume.assumeFalse(RawConsoleInput.isConsole());
+        originalIn = System.in;
+    }
+
+    @After
+    public void restoreIn() {
+        if(originalIn != null)
+            System.setIn(originalIn);
+    }
+
+    @Test
+    public void readsPipedLines() throws IOException {
+        char[] longLine = new char[100000];
+        Arrays.fill(longLine, 'x');
+        String input = "first\r\n\nsecond\n" + new String(longLine) + "\nlast";
+        System.setIn(new ByteArrayInputStream(input.getBytes(Charset.defaultCharset())));
+        assertEquals("Line mismatches", "first", RawConsoleInput.readLine());
+        assertEquals("Empty line mismatches", "", RawConsoleInput.readLine());
+        RawConsoleInput.unread(new char[]{'a', '\n', 'b'}, 0, 3);
+        assertEquals("Pushed back line mismatches", "a", RawConsoleInput.readLine());
+        assertEquals("Line should continue after pushed back chars", "bsecond", RawConsoleInput.readLine());
+        assertEquals("Long line mismatches", new String(longLine), RawConsoleInput.readLine());
+        assertEquals("Last line mismatches", "last", RawConsoleInput.readLine());
+        assertEquals("End of input should return null", null, RawConsoleInput.readLine());
+    }
+}
@@ -1,35 +1,43 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
 import javafx.util.Pair;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExternalResource;
 import org.junit.rules.Timeout;
-import org.junit.runner.RunWith;
 import org.mockito.*;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.*;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import static com.kantenkugel.consoleutils.MockUtils.mockIO;
 
 /**
  * @author Kantenkugel (Michael Ritter)
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(RawConsoleInput.class)
 public class AutoCompleterTest {
     private static final String[] OPTIONS = {"test", "testing", "auto", "autocomplete", "foo", "bar", "aurora", "auras"};
 
     @Rule
     public Timeout globalTimeout = Timeout.seconds(10);
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
 
     @Mock
     private Function<String, String[]> optionProvider;
@@ -118,8 +126,8 @@ public class AutoCompleterTest {
         verifyOptionCalls(Collections.singletonList(""));
         Pair<String, String> result = mock.get();
         assertEquals("Second line should remain in input buffer", "nope", result.getKey());
-        //write autocompletion, reset pointer to after f, on backspace delete 1 char, no more completion -> clear completion (3 chars)
-        assertEquals("Autocompletion of 'foo' should be cleared", "foo\b\b\b \b   \b\b\b", result.getValue());
+        //write autocompletion, reset pointer to after f, on backspace move back 1 char and clear the rest of the line (3 chars)
+        assertEquals("Autocompletion of 'foo' should be cleared", "foo\b\b\b   \b\b\b", result.getValue());
     }
 
     @Test
@@ -168,6 +176,211 @@ public class AutoCompleterTest {
                 "cool", result.getValue());
     }
 
+    @Test
+    public void optionCacheAvoidsProviderCalls() throws IOException {
+        AutoCompleter autoCompleter = getDefaultCompleter().setOptionCache(10, 0, TimeUnit.SECONDS);
+        for(int i = 0; i < 3; i++) {
+            Supplier<Pair<String, String>> mock = mockIO("f");
+            assertEquals("Return of AutoCompleter#get mismatches", null, autoCompleter.get());
+            Pair<String, String> result = mock.get();
+            assertEquals("Autocompletion for 'foo' should be shown", "foo\b\b", result.getValue());
+        }
+        verifyOptionCalls(Collections.singletonList(""));
+        assertEquals("Cache hits mismatch", 2, autoCompleter.getCacheHits());
+        assertEquals("Cache misses mismatch", 1, autoCompleter.getCacheMisses());
+    }
+
+    @Test
+    public void compactIndexCompletes() throws IOException {
+        Supplier<Pair<String, String>> mock = mockIO("auro\t\nnope");
+        AutoCompleter autoCompleter = getDefaultCompleter().setIndexFactory(CompactCompletionIndex::from);
+        assertEquals("Return of AutoCompleter#get mismatches", "aurora", autoCompleter.get());
+        Pair<String, String> result = mock.get();
+        assertEquals("Remaining input mismatches", "nope", result.getKey());
+        assertEquals("Output mismatches", "au\burora\b\bra", result.getValue());
+    }
+
+    @Test
+    public void prebuiltIndexCompletes() throws IOException {
+        CompletionIndex index = CompactCompletionIndex.from(OPTIONS);
+        List<String> calls = new ArrayList<>();
+        Supplier<Pair<String, String>> mock = mockIO("auro\t\nnope");
+        AutoCompleter autoCompleter = AutoCompleter.indexed(prev -> {
+            calls.add(prev);
+            return index;
+        });
+        assertEquals("Return of AutoCompleter#get mismatches", "aurora", autoCompleter.get());
+        assertEquals("Index provider calls mismatch", Collections.singletonList(""), calls);
+        Pair<String, String> result = mock.get();
+        assertEquals("Output mismatches", "au\burora\b\bra", result.getValue());
+    }
+
+    @Test
+    public void largeOptionSetCompletes() throws IOException {
+        String[] options = new String[50000];
+        for(int i = 0; i < options.length; i++)
+            options[i] = "entry" + i;
+        options[0] = "zebra";
+        Supplier<Pair<String, String>> mock = mockIO("z\t e\t1234\nnope");
+        AutoCompleter autoCompleter = new AutoCompleter(prev -> options);
+        assertEquals("Return of AutoCompleter#get mismatches", "zebra entry1234", autoCompleter.get());
+        Pair<String, String> result = mock.get();
+        assertEquals("Output mismatches", "zebra\b\b\b\bebra entry\b\b\b\bntry1234", result.getValue());
+    }
+
+    @Test
+    public void parallelTreeMatchesSequentialTree() {
+        //many first chars and big runs, so the runs get split between tasks and all subtrees are renumbered
+        Random random = new Random(42);
+        String[] options = new String[40000];
+        for(int i = 0; i < options.length; i++) {
+            char[] chars = new char[1 + random.nextInt(8)];
+            for(int j = 0; j < chars.length; j++)
+                chars[j] = (char) ('0' + random.nextInt(j == 0 ? 60 : 10));
+            options[i] = new String(chars);
+        }
+        options[0] = "";
+        options[1] = options[2];
+        AutoCompleter.PrefixTree sequential = AutoCompleter.PrefixTree.fromSequential(options);
+        AutoCompleter.PrefixTree parallel = AutoCompleter.PrefixTree.fromParallel(options);
+        assertEquals("Node count mismatches", sequential.getNodeCount(), parallel.getNodeCount());
+
+        Set<Integer> parallelStates = new HashSet<>();
+        assertSameStructure(sequential, sequential.root(), parallel, parallel.root(), parallelStates);
+        assertEquals("Every node should have its own state", parallel.getNodeCount(), parallelStates.size());
+        for(int state : parallelStates)
+            assertTrue("State outside of the nodes: " + state, state >= 0 && state < parallel.getNodeCount());
+
+        for(int i = 0; i < 500; i++) {
+            String probe = options[random.nextInt(options.length)];
+            probe = probe.substring(0, random.nextInt(probe.length() + 1));
+            assertEquals("Longest prefix of '" + probe + "' mismatches",
+                    sequential.getLongestPrefix(probe), parallel.getLongestPrefix(probe));
+        }
+        assertEquals("Unknown input should have no prefix", null, parallel.getLongestPrefix("~"));
+    }
+
+    private static void assertSameStructure(CompletionIndex expected, int expectedState, CompletionIndex actual,
+                                            int actualState, Set<Integer> actualStates) {
+        assertTrue("State should be reached once: " + actualState, actualStates.add(actualState));
+        assertEquals("Final state mismatches", expected.isFinal(expectedState), actual.isFinal(actualState));
+        assertEquals("Child count mismatches", expected.childCount(expectedState), actual.childCount(actualState));
+        for(int i = 0; i < expected.childCount(expectedState); i++) {
+            char c = expected.childChar(expectedState, i);
+            assertEquals("Child char mismatches", c, actual.childChar(actualState, i));
+            assertEquals("Next state mismatches", actual.child(actualState, i), actual.next(actualState, c));
+            assertSameStructure(expected, expected.child(expectedState, i), actual, actual.child(actualState, i),
+                    actualStates);
+        }
+    }
+
+    @Test
+    public void keyCodesAreIgnored() throws IOException {
+        Supplier<Pair<String, String>> mock = mockIO("f" + CharConstants.KEY_UP + CharConstants.KEY_F1 + "\t\n");
+        assertEquals("Return of AutoCompleter#get mismatches", "foo", getDefaultCompleter().get());
+        Pair<String, String> result = mock.get();
+        assertEquals("There should be no more console input", "", result.getKey());
+        assertEquals("Key codes should not be echoed", "foo\b\boo", result.getValue());
+    }
+
+    @Test
+    public void pasteUpdatesSuggestionOnce() throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("f\u001B[200~oo\rte\u001B[201~\t\n")
+                .setBracketedPaste(true);
+        ConsoleUtils.setTerminalBackend(backend);
+        assertEquals("Return of AutoCompleter#get mismatches", "foo test", getDefaultCompleter().get());
+        verifyOptionCalls(Arrays.asList("", "foo"));
+        //the paste is echoed at once over the matching suggestion for 'f', the suggestion for 'te' shown and tab-completed
+        assertEquals("Output mismatches", "\u001B[?2004hfoo\b\boo test\b\bsting\b\b\b   \b\b\b\u001B[?2004l",
+                backend.getOutput());
+    }
+
+    @Test
+    public void optionCacheEvictsLeastRecentlyUsed() throws IOException {
+        AutoCompleter autoCompleter = getDefaultCompleter().setOptionCache(2, 0, TimeUnit.SECONDS);
+        for(String line : new String[]{"a", "b c", "d", "e f", "b c"}) {
+            Supplier<Pair<String, String>> mock = mockIO(line + "\n");
+            assertEquals("Return of AutoCompleter#get mismatches", line, autoCompleter.get());
+            mock.get();
+        }
+        //"" is used by every line and therefore never evicted, "b" is evicted by "e"
+        verifyOptionCalls(Arrays.asList("", "b", "e", "b"));
+        assertEquals("Cache hits mismatch", 4, autoCompleter.getCacheHits());
+        assertEquals("Cache misses mismatch", 4, autoCompleter.getCacheMisses());
+    }
+
+    private static String awaitOutput(ByteArrayOutputStream bos, int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while(bos.size() < length && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void asyncOptionsShowWhenArrived() throws Exception {
+        CompletableFuture<String[]> future = new CompletableFuture<>();
+        AutoCompleter autoCompleter = AutoCompleter.async(previousInput -> future);
+        PrintStream out = System.out;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bos, true));
+        try {
+            StringBuilder buffer = new StringBuilder("f");
+            autoCompleter.accept(new ConsoleInputEvent(buffer, 'f'));
+            assertEquals("Typed char should be echoed before options arrived", "f", awaitOutput(bos, 1));
+            future.complete(OPTIONS);
+            assertEquals("Autocompletion for 'foo' should be shown once options arrived", "foo\b\b", awaitOutput(bos, 5));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    @Test
+    public void asyncOptionsArrivingWhileTypingUseEchoedInput() throws Exception {
+        CompletableFuture<String[]> future = new CompletableFuture<>();
+        AutoCompleter autoCompleter = AutoCompleter.async(previousInput -> future);
+        PrintStream out = System.out;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bos, true));
+        try {
+            StringBuilder buffer = new StringBuilder("f");
+            autoCompleter.accept(new ConsoleInputEvent(buffer, 'f'));
+            //the reading thread already added the next char, but did not pass it on yet
+            buffer.append('o');
+            future.complete(OPTIONS);
+            assertEquals("Autocompletion should be shown for the echoed input only", "foo\b\b", awaitOutput(bos, 5));
+            autoCompleter.accept(new ConsoleInputEvent(buffer, 'o'));
+            assertEquals("Typed char should move over the suggestion", "foo\b\bo", awaitOutput(bos, 6));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
+    @Test
+    public void asyncOptionsCancelOutdatedRequests() throws Exception {
+        List<CompletableFuture<String[]>> futures = new ArrayList<>();
+        AutoCompleter autoCompleter = AutoCompleter.async(previousInput -> {
+            CompletableFuture<String[]> future = new CompletableFuture<>();
+            futures.add(future);
+            return future;
+        });
+        PrintStream out = System.out;
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bos, true));
+        try {
+            StringBuilder buffer = new StringBuilder();
+            for(char c : "f b".toCharArray()) {
+                buffer.append(c);
+                autoCompleter.accept(new ConsoleInputEvent(buffer, c));
+            }
+            assertEquals("Options should have been requested for 2 previous inputs", 2, futures.size());
+            assertTrue("Request for previous input '' should be cancelled", futures.get(0).isCancelled());
+            futures.get(1).complete(OPTIONS);
+            assertEquals("Autocompletion for 'bar' should be shown", "f bar\b\b", awaitOutput(bos, 7));
+        } finally {
+            System.setOut(out);
+        }
+    }
+
     @Test
     public void dependentOptionsWorks() throws IOException {
         AutoCompleter.DependentOptions root = new AutoCompleter.DependentOptions();
@@ -204,4 +417,23 @@ public class AutoCompleterTest {
         assertEquals("'node u n' with DependentOptions fails",
                 "no\bode\be u n", result.getValue());
     }
+
+    @Test
+    public void dependentOptionsPickUpNewOptions() throws IOException {
+        AutoCompleter.DependentOptions root = new AutoCompleter.DependentOptions();
+        root.createOption("foo");
+        AutoCompleter autoCompleter = new AutoCompleter(root);
+
+        Supplier<Pair<String, String>> mock = mockIO("f");
+        assertEquals("Return of AutoCompleter#get mismatches", null, autoCompleter.get());
+        Pair<String, String> result = mock.get();
+        assertEquals("Autocompletion for 'foo' should be shown", "foo\b\b", result.getValue());
+
+        //adding an option has to invalidate the cached tree
+        root.createOption("fob");
+        mock = mockIO("f");
+        assertEquals("Return of AutoCompleter#get mismatches", null, autoCompleter.get());
+        result = mock.get();
+        assertEquals("Only common prefix of 'foo' and 'fob' should be shown", "fo\b", result.getValue());
+    }
 }
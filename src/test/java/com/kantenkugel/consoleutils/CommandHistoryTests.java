@@ -0,0 +1,127 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class CommandHistoryTests {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path historyFile() {
+        return folder.getRoot().toPath().resolve("history");
+    }
+
+    @Test
+    public void entriesArePersisted() throws IOException {
+        Path file = historyFile();
+        try(CommandHistory history = CommandHistory.open(file)) {
+            assertTrue("Entry should be added", history.add("ls -la"));
+            assertFalse("Repeated entry should be skipped", history.add("ls -la"));
+            assertFalse("Empty entry should be skipped", history.add(""));
+            assertTrue("Entry should be added", history.add("cd /tmp"));
+        }
+        try(CommandHistory history = CommandHistory.open(file)) {
+            assertEquals("Size after reopening mismatches", 2, history.size());
+            assertEquals("Oldest entry mismatches", "ls -la", history.get(0));
+            assertEquals("Most recent entry mismatches", "cd /tmp", history.get(1));
+            history.add("git status");
+            assertEquals("Appended entry mismatches", "git status", history.get(2));
+        }
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws IOException {
+        Path file = historyFile();
+        try(CommandHistory history = CommandHistory.open(file)) {
+            for(int i = 0; i < 20000; i++)
+                history.add("echo " + i);
+        }
+        try(CommandHistory history = CommandHistory.open(file)) {
+            assertEquals("Size mismatches", 20000, history.size());
+            assertEquals("Entry mismatches", "echo 12345", history.get(12345));
+        }
+    }
+
+    @Test
+    public void historiesOfSameFileShareEntries() throws IOException {
+        Path file = historyFile();
+        try(CommandHistory first = CommandHistory.open(file); CommandHistory second = CommandHistory.open(file)) {
+            first.add("from first");
+            second.add("from second");
+            //enough entries for both files to grow, so each history has to map them again
+            for(int i = 0; i < 5000; i++)
+                (i % 2 == 0 ? first : second).add("entry " + i);
+            assertEquals("Second history should have all entries after its last add", 5002, second.size());
+            first.refresh();
+            assertEquals("First history should have all entries after refresh", 5002, first.size());
+            assertEquals("Entry of the other history mismatches", "from second", first.get(1));
+            assertEquals("Search should find entries of the other history", "entry 4999",
+                    first.search().getMatch());
+        }
+        try(CommandHistory history = CommandHistory.open(file)) {
+            assertEquals("No entry should be lost", 5002, history.size());
+            assertEquals("Entry mismatches", "from first", history.get(0));
+            assertEquals("Entry mismatches", "entry 1234", history.get(1236));
+        }
+    }
+
+    @Test
+    public void missingIndexIsRebuilt() throws IOException {
+        Path file = historyFile();
+        try(CommandHistory history = CommandHistory.open(file)) {
+            history.add("first");
+            history.add("second");
+        }
+        Files.delete(file.resolveSibling("history.idx"));
+        try(CommandHistory history = CommandHistory.open(file)) {
+            assertEquals("Size of rebuilt index mismatches", 2, history.size());
+            assertEquals("Entry of rebuilt index mismatches", "second", history.get(1));
+        }
+    }
+
+    @Test
+    public void reverseSearchNarrowsMatches() throws IOException {
+        try(CommandHistory history = CommandHistory.open(historyFile())) {
+            history.add("git commit");
+            history.add("grep foo");
+            history.add("git checkout main");
+            history.add("ls");
+            CommandHistory.Search search = history.search();
+            assertEquals("Empty query should match the most recent entry", "ls", search.getMatch());
+            assertTrue("'g' should match", search.append('g'));
+            assertEquals("Most recent match mismatches", "git checkout main", search.getMatch());
+            assertTrue("'gi' should match", search.append('i'));
+            assertTrue("Older match should be found", search.older());
+            assertEquals("Older match mismatches", "git commit", search.getMatch());
+            assertFalse("There should be no older match", search.older());
+            assertTrue("Newer match should be found", search.newer());
+            assertEquals("Newer match mismatches", 2, search.getMatchIndex());
+            assertTrue("'git co' should match", search.setQuery("git co"));
+            assertEquals("Narrowed match mismatches", "git commit", search.getMatch());
+            assertFalse("'git cox' should not match", search.append('x'));
+            assertNull("There should be no match", search.getMatch());
+            assertTrue("Shorter query should restart the search", search.setQuery("foo"));
+            assertEquals("Restarted match mismatches", "grep foo", search.getMatch());
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFilesAreRejected() throws IOException {
+        Path file = historyFile();
+        Files.write(file, "not a history file".getBytes("UTF-8"));
+        CommandHistory.open(file).close();
+    }
+}
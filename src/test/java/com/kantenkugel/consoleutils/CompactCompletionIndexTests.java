@@ -0,0 +1,117 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class CompactCompletionIndexTests {
+    private static final String[] OPTIONS = {"test", "testing", "auto", "autocomplete", "foo", "bar", "aurora", "auras"};
+
+    @Test
+    public void completesLikePrefixTree() {
+        CompletionIndex index = CompactCompletionIndex.from(OPTIONS);
+        assertEquals("Longest prefix mismatches", "foo", index.getLongestPrefix("f"));
+        assertEquals("Longest prefix mismatches", "au", index.getLongestPrefix("a"));
+        assertEquals("Longest prefix mismatches", "aur", index.getLongestPrefix("aur"));
+        assertEquals("Longest prefix mismatches", "aurora", index.getLongestPrefix("auro"));
+        assertEquals("Longest prefix should stop at the first option", "test", index.getLongestPrefix("t"));
+        assertEquals("Longest prefix mismatches", "testing", index.getLongestPrefix("testi"));
+        assertEquals("Unknown input should have no prefix", null, index.getLongestPrefix("x"));
+        assertEquals("Unknown input should have no prefix", null, index.getLongestPrefix("testx"));
+    }
+
+    @Test
+    public void walksStates() {
+        CompletionIndex index = CompactCompletionIndex.from("b", "a", "ab", "a");
+        int root = index.root();
+        assertFalse("Root should not be final", index.isFinal(root));
+        assertEquals("Root child count mismatches", 2, index.childCount(root));
+        assertEquals("Children should be sorted", 'a', index.childChar(root, 0));
+        assertEquals("Children should be sorted", 'b', index.childChar(root, 1));
+        int a = index.next(root, 'a');
+        assertTrue("'a' should be final", index.isFinal(a));
+        assertEquals("Child state mismatches", a, index.child(root, 0));
+        assertEquals("Missing char should have no state", CompletionIndex.NO_STATE, index.next(a, 'a'));
+        assertTrue("'ab' should be final", index.isFinal(index.next(a, 'b')));
+    }
+
+    @Test
+    public void emptyOptionIsFinalRoot() {
+        CompletionIndex index = CompactCompletionIndex.from("", "x");
+        assertTrue("Root should be final", index.isFinal(index.root()));
+        assertEquals("Longest prefix mismatches", "x", index.getLongestPrefix(""));
+        assertEquals("No options should have no prefix", null, CompactCompletionIndex.from().getLongestPrefix("a"));
+    }
+
+    @Test
+    public void sharesSuffixes() {
+        String[] hosts = new String[1000];
+        for(int i = 0; i < hosts.length; i++)
+            hosts[i] = "host" + i + ".eu-west.example.com";
+        CompactCompletionIndex index = CompactCompletionIndex.from(hosts);
+        //the digits share one path into the common suffix, which only exists once
+        assertTrue("Suffix should be shared, got " + index.getStateCount() + " states", index.getStateCount() < 100);
+        assertTrue("Memory footprint should be small", index.getMemoryFootprint() < 4096);
+        assertEquals("Longest prefix mismatches", "host999.eu-west.example.com", index.getLongestPrefix("host999"));
+        assertEquals("Longest prefix mismatches", "host99", index.getLongestPrefix("host99"));
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(42);
+        for(int run = 0; run < 200; run++) {
+            String[] options = new String[random.nextInt(30)];
+            for(int i = 0; i < options.length; i++)
+                options[i] = randomWord(random);
+            CompletionIndex index = CompactCompletionIndex.from(options);
+            for(int i = 0; i < 50; i++) {
+                String start = randomWord(random);
+                assertEquals("Longest prefix of '" + start + "' mismatches",
+                        bruteForceLongestPrefix(options, start), index.getLongestPrefix(start));
+            }
+        }
+    }
+
+    private static String randomWord(Random random) {
+        char[] chars = new char[random.nextInt(5)];
+        for(int i = 0; i < chars.length; i++)
+            chars[i] = (char) ('a' + random.nextInt(3));
+        return new String(chars);
+    }
+
+    private static String bruteForceLongestPrefix(String[] options, String start) {
+        String prefix = null;
+        //the root always exists
+        boolean found = start.isEmpty();
+        for(String option : options) {
+            if(!option.startsWith(start))
+                continue;
+            found = true;
+            //the input itself being an option does not stop the completion
+            if(option.length() > start.length())
+                prefix = prefix == null ? option : commonPrefix(prefix, option);
+        }
+        if(prefix == null)
+            return found ? start : null;
+        //stop at the shortest option longer than the input
+        for(String option : options) {
+            if(option.length() > start.length() && option.length() < prefix.length() && prefix.startsWith(option))
+                prefix = option;
+        }
+        return prefix;
+    }
+
+    private static String commonPrefix(String a, String b) {
+        int i = 0;
+        while(i < a.length() && i < b.length() && a.charAt(i) == b.charAt(i))
+            i++;
+        return a.substring(0, i);
+    }
+}
@@ -0,0 +1,83 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.Timeout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class ConsoleDispatcherTests {
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(10);
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
+
+    //collects the buffer after every char and finishes (cancels) on a line break
+    private Consumer<ConsoleInputEvent> lineHandler(List<String> buffers) {
+        return event -> {
+            buffers.add(event.getCurrentBuffer().toString());
+            if(event.getAddedChar() == '\n')
+                event.cancelLoop();
+        };
+    }
+
+    @Test
+    public void activeHandlerCanBeSwitched() throws Exception {
+        ConsoleUtils.setTerminalBackend(new InMemoryTerminalBackend("ab!cd\ne"));
+        ConsoleDispatcher dispatcher = new ConsoleDispatcher();
+        List<String> outer = new ArrayList<>();
+        List<String> inner = new ArrayList<>();
+        Consumer<ConsoleInputEvent> innerHandler = lineHandler(inner);
+        dispatcher.push(event -> {
+            outer.add(event.getCurrentBuffer().toString());
+            //a command that asks for another line
+            if(event.getAddedChar() == '!')
+                dispatcher.push(innerHandler);
+        });
+        LoopHandle handle = dispatcher.start(command -> {
+            Thread thread = new Thread(command, "dispatcher-test");
+            thread.setDaemon(true);
+            thread.start();
+        });
+        assertTrue("Dispatcher should stop at the end of input", handle.await(5, TimeUnit.SECONDS));
+        assertFalse("Dispatcher should not be running anymore", dispatcher.isRunning());
+        assertEquals("Outer handler events mismatch", Arrays.asList("a", "ab", "ab!", "e", "e\u0004"), outer);
+        assertEquals("Inner handler should start with an empty buffer", Arrays.asList("c", "cd", "cd\n"), inner);
+        assertFalse("Finished handler should be removed", dispatcher.remove(innerHandler));
+    }
+
+    @Test
+    public void stopKeepsHandlers() throws IOException, InterruptedException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("a");
+        ConsoleUtils.setTerminalBackend(backend);
+        ConsoleDispatcher dispatcher = new ConsoleDispatcher();
+        assertNull("Stopping an idle dispatcher should do nothing", dispatcher.stop());
+        AtomicReference<Character> added = new AtomicReference<>();
+        Consumer<ConsoleInputEvent> handler = event -> added.compareAndSet(null, event.getAddedChar());
+        dispatcher.push(handler);
+        assertTrue("Dispatcher should end at the end of input", dispatcher.start().await(5, TimeUnit.SECONDS));
+        assertEquals("Handler should receive the input", Character.valueOf('a'), added.get());
+        assertEquals("Handler should stay subscribed", handler, dispatcher.getActiveHandler());
+        assertEquals("Popped handler mismatches", handler, dispatcher.pop());
+        assertNull("No handler should be left", dispatcher.getActiveHandler());
+
+        backend.addInput("b");
+        assertTrue("Dispatcher should be restartable", dispatcher.start().await(5, TimeUnit.SECONDS));
+        assertEquals("Input without handler should be consumed", "", backend.getRemainingInput());
+    }
+}
@@ -0,0 +1,63 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class ConsoleInputEventTests {
+    private static final Consumer<ConsoleInputEvent> CLEARING_HANDLER = event -> {
+        if(event.getCurrentBuffer().length() >= 64)
+            event.clearBuffer();
+    };
+
+    private static long runReusing(StringBuilder b, ConsoleInputEvent event, int iterations) {
+        long cancels = 0;
+        for(int i = 0; i < iterations; i++) {
+            if(ConsoleReader.handleInput(CLEARING_HANDLER, b, (char) ('a' + i % 26), event))
+                cancels++;
+        }
+        return cancels;
+    }
+
+    @Test
+    public void reusedEventIsReset() {
+        StringBuilder b = new StringBuilder();
+        ConsoleInputEvent event = new ConsoleInputEvent(b, '\0');
+        assertTrue("Cancel should be reported", ConsoleReader.handleInput(ConsoleInputEvent::cancelLoop, b, 'a', event));
+        assertEquals("Added char mismatches", 'a', event.getAddedChar());
+        assertEquals("Cancel flag should be reset for the next char", false,
+                ConsoleReader.handleInput(e -> {}, b, 'b', event));
+        assertEquals("Added char mismatches", 'b', event.getAddedChar());
+        assertEquals("Buffer should contain both chars", "ab", event.getCurrentBuffer().toString());
+    }
+
+    @Test
+    public void reusedEventDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation measurement not supported",
+                threadBean instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threadBean).isThreadAllocatedMemorySupported());
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        long threadId = Thread.currentThread().getId();
+
+        StringBuilder b = new StringBuilder();
+        ConsoleInputEvent event = new ConsoleInputEvent(b, '\0');
+        //warm up (buffer growth, class loading, jit)
+        runReusing(b, event, 100_000);
+
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        runReusing(b, event, 1_000_000);
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+        //allow a few bytes for the measurement itself
+        assertTrue("Handling input with a reused event should not allocate (allocated " + allocated + " bytes)",
+                allocated < 1024);
+    }
+}
@@ -1,35 +1,41 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
 import javafx.util.Pair;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
-import org.junit.runner.RunWith;
-import org.powermock.core.classloader.annotations.PrepareForTest;
-import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 import static com.kantenkugel.consoleutils.MockUtils.mockIO;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * @author Kantenkugel (Michael Ritter)
  */
-@RunWith(PowerMockRunner.class)
-@PrepareForTest(RawConsoleInput.class)
 public class ConsoleReaderTests {
     @Rule
     public Timeout globalTimeout = Timeout.seconds(10);
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
 
     private List<String> bufferCollection;
     private List<Character> charsAdded;
@@ -107,4 +113,209 @@ public class ConsoleReaderTests {
                 Arrays.asList('t', 'e', 's', 't', 't', '\b', 'i', 'n', 'g', '\u0004'), charsAdded);
     }
 
+    @Test
+    public void editingLoopMovesCursor() throws IOException {
+        Supplier<Pair<String, String>> mock = mockIO("ac" + CharConstants.KEY_LEFT + "b" + CharConstants.KEY_HOME
+                + CharConstants.KEY_DELETE + "x" + CharConstants.KEY_END + "\bd" + CharConstants.KEY_F1 + "\n");
+        List<Integer> cursors = new ArrayList<>();
+        ConsoleReader.startEditingLoop(event -> {
+            bufferCollection.add(event.getLine().toString());
+            cursors.add(event.getCursor());
+            if(event.getAddedChar() == '\n')
+                event.cancelLoop();
+        }, true);
+        Pair<String, String> result = mock.get();
+
+        assertEquals("There should be no remaining input", "", result.getKey());
+        assertEquals("Nothing printed to console", "", result.getValue());
+        assertEquals("Line mismatches after each key",
+                Arrays.asList("a", "ac", "ac", "abc", "abc", "bc", "xbc", "xbc", "xb", "xbd", "xbd", "xbd"),
+                bufferCollection);
+        assertEquals("Cursor mismatches after each key", Arrays.asList(1, 2, 1, 2, 0, 0, 1, 3, 2, 3, 3, 3), cursors);
+    }
+
+    @Test
+    public void editingLoopDrawsWithRenderer() throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("ac" + CharConstants.KEY_LEFT + "b\b\n");
+        ConsoleUtils.setTerminalBackend(backend);
+        ConsoleReader.startEditingLoop(event -> {
+            if(event.getAddedChar() == '\n')
+                event.cancelLoop();
+        }, false, new LineRenderer());
+
+        assertEquals("Only the changes of the line should be drawn", "ac\bbc\b\bc \b\b", backend.getOutput());
+    }
+
+    private CommandHistory openHistory(String... entries) throws IOException {
+        CommandHistory history = CommandHistory.open(folder.getRoot().toPath().resolve("history"));
+        for(String entry : entries)
+            history.add(entry);
+        return history;
+    }
+
+    @Test
+    public void editingLoopBrowsesHistory() throws IOException {
+        String input = "" + CharConstants.KEY_UP + CharConstants.KEY_UP + CharConstants.KEY_DOWN + CharConstants.KEY_DOWN
+                + 'x' + CharConstants.KEY_UP + CharConstants.KEY_DOWN + '\n';
+        ConsoleUtils.setTerminalBackend(new InMemoryTerminalBackend(input));
+        List<String> lines = new ArrayList<>();
+        try(CommandHistory history = openHistory("make test", "git status")) {
+            ConsoleReader.startEditingLoop(event -> {
+                lines.add(event.getLine().toString());
+                if(event.getAddedChar() == '\n')
+                    event.cancelLoop();
+            }, false, null, history);
+
+            assertEquals("Arrow keys should replace the line with the entries",
+                    Arrays.asList("git status", "make test", "git status", "", "x", "git status", "x", "x"), lines);
+            assertEquals("Accepted line should be added", 3, history.size());
+            assertEquals("Accepted line mismatches", "x", history.get(2));
+        }
+    }
+
+    @Test
+    public void editingLoopSearchesHistory() throws IOException {
+        String input = "ls" + CharConstants.CHAR_CTRL_R + 'm' + CharConstants.CHAR_CTRL_G
+                + CharConstants.CHAR_CTRL_R + "ma" + CharConstants.CHAR_CTRL_R + '\n';
+        ConsoleUtils.setTerminalBackend(new InMemoryTerminalBackend(input));
+        LineRenderer renderer = new LineRenderer();
+        List<String> lines = new ArrayList<>();
+        List<String> drawn = new ArrayList<>();
+        try(CommandHistory history = openHistory("make test", "git status", "make install")) {
+            ConsoleReader.startEditingLoop(event -> {
+                lines.add(event.getLine().toString());
+                drawn.add(renderer.getDrawn().toString());
+                if(event.getAddedChar() == '\n')
+                    event.cancelLoop();
+            }, false, renderer, history);
+
+            assertEquals("Search should replace the line with the selected match",
+                    Arrays.asList("l", "ls", "ls", "make install", "ls", "ls", "make install", "make install",
+                            "make test", "make test"), lines);
+            assertEquals("Query should be drawn in front of the match",
+                    "(reverse-i-search)`ma': make install", drawn.get(7));
+            assertEquals("Ending the search should draw the plain line", "make test", drawn.get(9));
+            assertEquals("Accepted match should be added", "make test", history.get(3));
+        }
+    }
+
+    private String runWithBracketedPaste(String input, Consumer<ConsoleInputEvent> consumer) throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend(input).setBracketedPaste(true);
+        ConsoleUtils.setTerminalBackend(backend);
+        ConsoleReader.startLoop(consumer);
+        assertEquals("There should be no remaining input", "", backend.getRemainingInput());
+        return backend.getOutput();
+    }
+
+    @Test
+    public void pasteIsSingleEvent() throws IOException {
+        List<String> pastes = new ArrayList<>();
+        Consumer<ConsoleInputEvent> consumer = getConsumer(-1);
+        String output = runWithBracketedPaste("a\u001B[200~bc\rd\u001B[2e\u001B[201~f", event -> {
+            pastes.add(event.isPaste() ? event.getPastedText().toString() : null);
+            consumer.accept(event);
+        });
+
+        assertEquals("Bracketed paste mode should be enabled and disabled", "\u001B[?2004h\u001B[?2004l", output);
+        assertEquals("Paste should be passed at once",
+                Arrays.asList("a", "abc\nd\u001B[2e", "abc\nd\u001B[2ef", "abc\nd\u001B[2ef\u0004"), bufferCollection);
+        assertEquals("Added chars mismatch", Arrays.asList('a', CharConstants.CHAR_PASTE, 'f', '\u0004'), charsAdded);
+        assertEquals("Pasted text mismatches", Arrays.asList(null, "bc\nd\u001B[2e", null, null), pastes);
+    }
+
+    @Test
+    public void escapeWithoutPasteIsPassedOn() throws IOException {
+        runWithBracketedPaste("\u001B[A\u001B", getConsumer(-1));
+
+        assertEquals("Escape sequences should be passed on",
+                Arrays.asList('\u001B', '[', 'A', '\u001B', '\u0004'), charsAdded);
+    }
+
+    @Test
+    public void pasteModeIsWrittenToLoopTerminal() throws IOException {
+        InMemoryTerminalBackend current = new InMemoryTerminalBackend();
+        InMemoryTerminalBackend loopTerminal = new InMemoryTerminalBackend("a").setBracketedPaste(true);
+        ConsoleUtils.setTerminalBackend(current);
+        ConsoleReader.loop(getConsumer(-1), loopTerminal, new AtomicBoolean(true), false, -1);
+
+        assertEquals("Paste mode should be switched on the terminal of the loop", "\u001B[?2004h\u001B[?2004l",
+                loopTerminal.getOutput());
+        assertEquals("Nothing should be written to the current terminal", "", current.getOutput());
+    }
+
+    @Test
+    public void cancelWakesUpAsyncLoop() throws Exception {
+        CountDownLatch waiting = new CountDownLatch(1);
+        //blocks like a console without input until it is woken up
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("a") {
+            private boolean wokenUp = false;
+
+            @Override
+            public synchronized int read(char[] dst, int off, int len, long timeoutMillis) {
+                if(!getRemainingInput().isEmpty())
+                    return super.read(dst, off, len, timeoutMillis);
+                waiting.countDown();
+                try {
+                    while(!wokenUp)
+                        wait();
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                wokenUp = false;
+                return NO_INPUT;
+            }
+
+            @Override
+            public synchronized void wakeup() {
+                wokenUp = true;
+                notifyAll();
+            }
+        };
+        ConsoleUtils.setTerminalBackend(backend);
+        LoopHandle handle = ConsoleReader.startLoopAsync(getConsumer(-1), false, ConsoleReader.DEFAULT_EXECUTOR);
+        assertTrue("Loop should wait for input", waiting.await(5, TimeUnit.SECONDS));
+        assertTrue("Loop should be running", handle.isRunning());
+        handle.run();
+        assertTrue("Loop should end without further input", handle.await(5, TimeUnit.SECONDS));
+        assertFalse("Loop should not be running anymore", handle.isRunning());
+        assertEquals("Input before cancelling should be handled", Collections.singletonList('a'), charsAdded);
+    }
+
+    @Test
+    public void bufferedLoopEndsIfHandlerThrows() throws Exception {
+        //more input than the ring can hold, so the reading thread would have to wait for the handler
+        char[] input = new char[10000];
+        Arrays.fill(input, 'x');
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend(new String(input));
+        ConsoleUtils.setTerminalBackend(backend);
+        LoopHandle handle = ConsoleReader.startBufferedLoopAsync(event -> {
+            throw new IllegalStateException("Handler failure");
+        }, false, WaitStrategy.BLOCK, command -> new Thread(() -> {
+            try {
+                command.run();
+            } catch(IllegalStateException expected) {
+                //the failure of the handler, nothing to do
+            }
+        }).start());
+        assertTrue("Loop should end after the handler failed", handle.await(5, TimeUnit.SECONDS));
+        assertFalse("Loop should not be running anymore", handle.isRunning());
+    }
+
+    @Test
+    public void bufferedLoopHandlesOnOwnThread() throws Exception {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("ab\u001B[200~c\rd\u001B[201~\nrest")
+                .setBracketedPaste(true);
+        ConsoleUtils.setTerminalBackend(backend);
+        List<String> threads = new ArrayList<>();
+        Consumer<ConsoleInputEvent> consumer = getConsumer(4);
+        LoopHandle handle = ConsoleReader.startBufferedLoopAsync(event -> {
+            threads.add(Thread.currentThread().getName());
+            consumer.accept(event);
+        }, false, WaitStrategy.BLOCK, command -> new Thread(command, "buffered-" + threads.size()).start());
+        assertTrue("Loop should end after the handler cancelled it", handle.await(5, TimeUnit.SECONDS));
+        assertEquals("Buffers mismatch", Arrays.asList("a", "ab", "abc\nd", "abc\nd\n"), bufferCollection);
+        assertEquals("Added chars mismatch", Arrays.asList('a', 'b', CharConstants.CHAR_PASTE, '\n'), charsAdded);
+        assertEquals("Handler should run on a single thread", 1, new HashSet<>(threads).size());
+        assertEquals("Input the handler did not get should be given back", "rest", backend.getRemainingInput());
+    }
 }
@@ -1,9 +1,9 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
 import javafx.util.Pair;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.ExternalResource;
 import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 import org.mockito.Answers;
@@ -24,10 +24,12 @@ import java.util.function.Supplier;
  * @author Kantenkugel (Michael Ritter)
  */
 @RunWith(PowerMockRunner.class)
-@PrepareForTest({RawConsoleInput.class, ConsoleUtils.class})
+@PrepareForTest(ConsoleUtils.class)
 public class ConsoleUtilsTests {
     @Rule
     public Timeout globalTimeout = Timeout.seconds(10);
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
 
     @Test
     public void testEmptyInput() throws IOException {
@@ -66,6 +68,15 @@ public class ConsoleUtilsTests {
                 String.format("*******%1$s%1$s%1$s***\n", "\b \b"), result.getValue());
     }
 
+    @Test
+    public void multiCharPlaceholderIsErasedAtOnce() throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("ab\b\n").setAnsiEscapes(true);
+        ConsoleUtils.setTerminalBackend(backend);
+        assertEquals("ConsoleUtils.readHidden should return first input line", "a", ConsoleUtils.readHidden("***"));
+        assertEquals("Placeholder should be erased with a cursor move and erase to end of line",
+                "******\b\b\b\u001B[K\n", backend.getOutput());
+    }
+
     @Test
     public void testBackSpaceWithPlaceholdersTwo() throws Exception {
         Supplier<Pair<String, String>> mock = mockIO("test\b\b\b\b\bing\nshould not matter");
@@ -86,7 +97,8 @@ public class ConsoleUtilsTests {
         Supplier<Pair<String, String>> mock = mockIO("test\b\b\b\bing\nshould not matter");
         PowerMockito.mockStatic(ConsoleUtils.class, Answers.CALLS_REAL_METHODS);
         String s = ConsoleUtils.readHidden("##");
-        PowerMockito.verifyStatic(ConsoleUtils.class, Mockito.times(8));
+        //multi-char placeholders are erased at once
+        PowerMockito.verifyStatic(ConsoleUtils.class, Mockito.never());
         ConsoleUtils.backspace();
         Pair<String, String> result = mock.get();
         assertEquals("ConsoleUtils.readHidden should return first input line", "ing", s);
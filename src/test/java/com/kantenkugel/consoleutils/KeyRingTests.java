@@ -0,0 +1,105 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class KeyRingTests {
+    private static final int CODE_COUNT = 100000;
+
+    @Rule
+    public Timeout globalTimeout = Timeout.seconds(20);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePowerOfTwo() {
+        new KeyRing(12, WaitStrategy.SPIN);
+    }
+
+    @Test
+    public void singleThreadKeepsOrder() throws InterruptedException {
+        KeyRing ring = new KeyRing(4, WaitStrategy.BLOCK);
+        int[] codes = new int[3];
+        ring.put('a');
+        ring.put(KeyRing.PASTE_START);
+        ring.put('b');
+        ring.put(KeyRing.PASTE_END);
+        assertEquals("Take should be limited by the array", 3, ring.take(codes));
+        assertEquals("First code mismatches", 'a', codes[0]);
+        assertEquals("Marker mismatches", KeyRing.PASTE_START, codes[1]);
+        ring.put('c');
+        ring.close();
+        assertEquals("Codes wrapping around should be taken", 2, ring.take(codes));
+        assertEquals("Wrapped code mismatches", 'c', codes[1]);
+        assertEquals("Closed ring should be done", -1, ring.take(codes));
+    }
+
+    @Test
+    public void producerStopsWaitingForClosedConsumer() throws InterruptedException {
+        KeyRing ring = new KeyRing(2, WaitStrategy.BLOCK);
+        assertTrue("Code should be added", ring.put('a'));
+        assertTrue("Code should be added", ring.put('b'));
+        Thread consumer = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch(InterruptedException ignored) {
+            }
+            ring.closeConsumer();
+        });
+        consumer.start();
+        assertFalse("Waiting put should give up once the consumer is gone", ring.put('c'));
+        assertFalse("Later puts should not be added", ring.put('d'));
+        consumer.join();
+    }
+
+    @Test
+    public void spinTransfersAllCodes() throws InterruptedException {
+        transfer(WaitStrategy.SPIN);
+    }
+
+    @Test
+    public void parkTransfersAllCodes() throws InterruptedException {
+        transfer(WaitStrategy.PARK);
+    }
+
+    @Test
+    public void blockTransfersAllCodes() throws InterruptedException {
+        transfer(WaitStrategy.BLOCK);
+    }
+
+    //a small ring, so both sides have to wait for each other
+    private void transfer(WaitStrategy waitStrategy) throws InterruptedException {
+        KeyRing ring = new KeyRing(8, waitStrategy);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                for(int i = 0; i < CODE_COUNT; i++)
+                    ring.put(i & 0xFFFF);
+            } catch(Throwable t) {
+                failure.set(t);
+            } finally {
+                ring.close();
+            }
+        });
+        producer.start();
+        int[] codes = new int[5];
+        int expected = 0;
+        int amount;
+        while((amount = ring.take(codes)) != -1) {
+            for(int i = 0; i < amount; i++)
+                assertEquals("Codes should keep their order", expected++ & 0xFFFF, codes[i]);
+        }
+        producer.join();
+        assertNull("Producer should not fail", failure.get());
+        assertEquals("All codes should be transferred", CODE_COUNT, expected);
+    }
+}
@@ -0,0 +1,92 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class LineBufferTests {
+    private static LineBuffer of(String text) {
+        LineBuffer line = new LineBuffer(2);
+        line.insert(text);
+        return line;
+    }
+
+    @Test
+    public void insertsAtCursor() {
+        LineBuffer line = of("held");
+        line.moveLeft();
+        line.moveLeft();
+        line.insert('l');
+        line.insert("lo wor");
+        assertEquals("Text should be inserted in the middle", "hello world", line.toString());
+        assertEquals("Cursor should be behind the inserted text", 9, line.getCursor());
+        assertEquals("Length mismatches", 11, line.length());
+        assertEquals("Char after the cursor mismatches", 'l', line.charAt(9));
+        assertEquals("Range across the cursor mismatches", "o wo", line.subSequence(4, 8).toString());
+    }
+
+    @Test
+    public void deletesAroundCursor() {
+        LineBuffer line = of("abcd");
+        line.setCursor(2);
+        assertTrue("Char before the cursor should be deleted", line.deleteBeforeCursor());
+        assertTrue("Char after the cursor should be deleted", line.deleteAfterCursor());
+        assertEquals("Remaining text mismatches", "ad", line.toString());
+        assertEquals("Cursor mismatches", 1, line.getCursor());
+        line.moveHome();
+        assertFalse("Nothing to delete before the start", line.deleteBeforeCursor());
+        line.moveEnd();
+        assertFalse("Nothing to delete after the end", line.deleteAfterCursor());
+        assertFalse("Cursor can not move past the end", line.moveRight());
+        line.clear();
+        assertEquals("Line should be empty", "", line.toString());
+        assertEquals("Cursor should be at the start", 0, line.getCursor());
+    }
+
+    @Test
+    public void growsWithTextOnBothSides() {
+        LineBuffer line = of("ac");
+        line.moveLeft();
+        StringBuilder expected = new StringBuilder("ac");
+        for(int i = 0; i < 100; i++) {
+            line.insert('b');
+            expected.insert(1 + i, 'b');
+        }
+        assertEquals("Text mismatches after growing", expected.toString(), line.toString());
+        line.setCursor(3);
+        line.setCursor(50);
+        line.setCursor(1);
+        assertEquals("Moving the cursor should not change the text", expected.toString(), line.toString());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void cursorStaysInLine() {
+        of("abc").setCursor(4);
+    }
+
+    @Test
+    public void getCharsChecksRange() {
+        LineBuffer line = of("abc");
+        char[] dst = new char[3];
+        int[][] ranges = {{-1, 2, 0}, {2, 1, 0}, {0, 4, 0}, {0, 3, 1}, {0, 1, -1}};
+        for(int[] range : ranges) {
+            try {
+                line.getChars(range[0], range[1], dst, range[2]);
+                fail("Range " + Arrays.toString(range) + " should be rejected");
+            } catch(IndexOutOfBoundsException expected) {
+                assertArrayEquals("Nothing should be copied", new char[3], dst);
+            }
+        }
+        line.getChars(1, 3, dst, 1);
+        assertArrayEquals("Copied chars mismatch", new char[]{0, 'b', 'c'}, dst);
+    }
+}
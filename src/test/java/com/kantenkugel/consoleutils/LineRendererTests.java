@@ -0,0 +1,66 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class LineRendererTests {
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
+
+    private InMemoryTerminalBackend backend;
+    private int outputLength;
+
+    @Before
+    public void setBackend() {
+        backend = new InMemoryTerminalBackend().setAnsiEscapes(true);
+        ConsoleUtils.setTerminalBackend(backend);
+        outputLength = 0;
+    }
+
+    //output since the last call
+    private String newOutput() {
+        String output = backend.getOutput();
+        String added = output.substring(outputLength);
+        outputLength = output.length();
+        return added;
+    }
+
+    @Test
+    public void onlyChangesAreWritten() throws IOException {
+        LineRenderer renderer = new LineRenderer();
+        renderer.render("hello", 5);
+        assertEquals("First line should be written completely", "hello", newOutput());
+        renderer.render("help", 4);
+        assertEquals("Only the changed end should be written and the rest erased", "\b\bp \b", newOutput());
+        renderer.render("help", 0);
+        assertEquals("Only the cursor should move", "\b\b\b\b", newOutput());
+        renderer.render("Xhelp", 1);
+        assertEquals("Text after the first difference should be written again", "Xhelp\b\b\b\b", newOutput());
+        renderer.render("Xhelp", 5);
+        assertEquals("Cursor should move over the shown text", "help", newOutput());
+        assertEquals("Drawn text mismatches", "Xhelp", renderer.getDrawn().toString());
+    }
+
+    @Test
+    public void longLinesUseEscapeSequences() throws IOException {
+        LineRenderer renderer = new LineRenderer();
+        renderer.render("a long line of text", 19);
+        newOutput();
+        renderer.render("a long line of text", 0);
+        assertEquals("Cursor should move with an escape sequence", "\u001B[19D", newOutput());
+        renderer.render("a long", 6);
+        assertEquals("Removed text should be erased to the end of line", "\u001B[6C\u001B[K", newOutput());
+        renderer.reset();
+        renderer.render("next", 4);
+        assertEquals("Line after reset should be written completely", "next", newOutput());
+    }
+}
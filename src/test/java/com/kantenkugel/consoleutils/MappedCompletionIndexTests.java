@@ -0,0 +1,84 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class MappedCompletionIndexTests {
+    private static final String[] OPTIONS = {"test", "testing", "auto", "autocomplete", "foo", "bar", "aurora", "auras"};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void completesFromFile() throws IOException {
+        Path file = folder.newFile().toPath();
+        CompactCompletionIndex.from(OPTIONS).writeTo(file);
+        MappedCompletionIndex index = MappedCompletionIndex.open(file);
+        assertEquals("Longest prefix mismatches", "foo", index.getLongestPrefix("f"));
+        assertEquals("Longest prefix mismatches", "au", index.getLongestPrefix("a"));
+        assertEquals("Longest prefix mismatches", "aurora", index.getLongestPrefix("auro"));
+        assertEquals("Longest prefix should stop at the first option", "test", index.getLongestPrefix("t"));
+        assertEquals("Unknown input should have no prefix", null, index.getLongestPrefix("x"));
+    }
+
+    @Test
+    public void matchesCompactIndex() throws IOException {
+        Random random = new Random(42);
+        String[] options = new String[5000];
+        for(int i = 0; i < options.length; i++)
+            options[i] = Integer.toString(random.nextInt(100000), 36) + ".example.com";
+        CompactCompletionIndex compact = CompactCompletionIndex.from(options);
+        Path file = folder.newFile().toPath();
+        compact.writeTo(file);
+        MappedCompletionIndex mapped = MappedCompletionIndex.open(file);
+        assertEquals("State count mismatches", compact.getStateCount(), mapped.getStateCount());
+        for(int state = 0; state < compact.getStateCount(); state++) {
+            assertEquals("Final state mismatches", compact.isFinal(state), mapped.isFinal(state));
+            assertEquals("Child count mismatches", compact.childCount(state), mapped.childCount(state));
+            for(int i = 0; i < compact.childCount(state); i++) {
+                char c = compact.childChar(state, i);
+                assertEquals("Child char mismatches", c, mapped.childChar(state, i));
+                assertEquals("Child mismatches", compact.child(state, i), mapped.child(state, i));
+                assertEquals("Next state mismatches", compact.next(state, c), mapped.next(state, c));
+            }
+            assertEquals("Missing char should have no state", CompletionIndex.NO_STATE, mapped.next(state, '#'));
+        }
+    }
+
+    @Test
+    public void rejectsInvalidFiles() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, new byte[]{1, 2, 3});
+        assertOpenFails(file);
+        Files.write(file, "This is not an index file".getBytes());
+        assertOpenFails(file);
+
+        CompactCompletionIndex.from(OPTIONS).writeTo(file);
+        byte[] content = Files.readAllBytes(file);
+        byte[] truncated = new byte[content.length - 1];
+        System.arraycopy(content, 0, truncated, 0, truncated.length);
+        Files.write(file, truncated);
+        assertOpenFails(file);
+    }
+
+    private static void assertOpenFails(Path file) {
+        try {
+            MappedCompletionIndex.open(file);
+            fail("Opening an invalid file should fail");
+        } catch(IOException expected) {
+            //expected
+        }
+    }
+}
@@ -1,22 +1,13 @@
 package com.kantenkugel.consoleutils;
 
-import biz.source_code.utils.RawConsoleInput;
 import javafx.util.Pair;
-import org.mockito.Mockito;
-import org.mockito.stubbing.Answer;
-import org.powermock.api.mockito.PowerMockito;
+import org.junit.rules.ExternalResource;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.nio.charset.StandardCharsets;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.Queue;
 import java.util.function.Supplier;
 
 /**
- * Used to help with Mocking of console input and System.out
+ * Used to help with Mocking of console input and output
  * @author Kantenkugel (Michael Ritter)
  */
 public class MockUtils {
@@ -28,7 +19,7 @@ public class MockUtils {
      *         The String to use for console input
      * @throws IOException
      *         In case of an IO error (unexpected)
-     * @return A Supplier that once called restores System.out and returns a Pair consisting of
+     * @return A Supplier that once called restores the previous terminal backend and returns a Pair consisting of
      *         remaining (unconsumed) input and produced output
      *
      * @see #mockIO(String, Object...)
@@ -38,8 +29,7 @@ public class MockUtils {
     }
 
     /**
-     * Mocks Console input and {@code System.out} for testing by Mocking {@link biz.source_code.utils.RawConsoleInput RawConsoleInput}
-     * and Replacing {@code System.out}.
+     * Mocks Console input and output for testing by setting an {@link InMemoryTerminalBackend} as terminal backend.
      * <p>
      * This method supports optional Object varargs that are used to format input.
      * <br>If formatting varargs are empty or {@code null}, no formatting is done.
@@ -50,28 +40,40 @@ public class MockUtils {
      *         If non-null and non-empty, this is used to format the input string
      * @throws IOException
      *         In case of an IO error (unexpected)
-     * @return A Supplier that once called restores System.out and returns a Pair consisting of
+     * @return A Supplier that once called restores the previous terminal backend and returns a Pair consisting of
      *         remaining (unconsumed) input and produced output
      */
     static Supplier<Pair<String, String>> mockIO(String input, Object... format) throws IOException {
         if(format != null && format.length > 0)
             input = String.format(input, format);
-        PrintStream out = System.out;
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        System.setOut(new PrintStream(bos));
-        PowerMockito.mockStatic(RawConsoleInput.class);
-        Queue<Integer> codePoints = input.codePoints().collect(LinkedList<Integer>::new, List::add, List::addAll);
-        Mockito.when(RawConsoleInput.read(true)).thenAnswer((Answer<Integer>) invocation -> {
-            if(codePoints.isEmpty())
-                return (int) CharConstants.CHAR_CTRL_D;
-            return codePoints.poll();
-        });
+        TerminalBackend previous = ConsoleUtils.getTerminalBackend();
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend(input);
+        ConsoleUtils.setTerminalBackend(backend);
         return () -> {
-            System.setOut(out);
-            return new Pair<>(
-                    new String(codePoints.stream().mapToInt(Integer::intValue).toArray(),0, codePoints.size()),
-                    new String(bos.toByteArray(), StandardCharsets.UTF_8)
-            );
+            ConsoleUtils.setTerminalBackend(previous);
+            return new Pair<>(backend.getRemainingInput(), backend.getOutput());
+        };
+    }
+
+    /**
+     * Creates a rule that restores the terminal backend after each test,
+     * so tests can set their own with {@link ConsoleUtils#setTerminalBackend(TerminalBackend)}.
+     *
+     * @return The rule to use as {@code @Rule} field
+     */
+    static ExternalResource restoreTerminalBackend() {
+        return new ExternalResource() {
+            private TerminalBackend previous;
+
+            @Override
+            protected void before() {
+                previous = ConsoleUtils.getTerminalBackend();
+            }
+
+            @Override
+            protected void after() {
+                ConsoleUtils.setTerminalBackend(previous);
+            }
         };
     }
 
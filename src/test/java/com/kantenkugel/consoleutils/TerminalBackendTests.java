@@ -0,0 +1,221 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class TerminalBackendTests {
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
+
+    @Test
+    public void inMemoryReadsScriptedInput() {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("abc");
+        backend.addInput("def");
+        char[] buffer = new char[4];
+        assertEquals("Single read mismatches", 'a', backend.read(true));
+        assertEquals("Bulk read amount mismatches", 4, backend.read(buffer, 0, buffer.length, true));
+        assertEquals("Bulk read mismatches", "bcde", new String(buffer));
+        backend.unread(buffer, 2, 2);
+        backend.unread(buffer, 0, 1);
+        assertEquals("Remaining input mismatches", "bdef", backend.getRemainingInput());
+        assertEquals("Bulk read amount mismatches", 4, backend.read(buffer, 0, buffer.length, true));
+        assertEquals("Consumed input should report end of input", -1, backend.read(true));
+    }
+
+    @Test
+    public void inMemoryCollectsOutput() {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend();
+        byte[] output = "h\u00e9llo".getBytes(StandardCharsets.UTF_8);
+        backend.write(output, 0, 3);
+        backend.write(output, 3, output.length - 3);
+        assertEquals("Output mismatches", "h\u00e9llo", backend.getOutput());
+        backend.clearOutput();
+        assertEquals("Output should be cleared", "", backend.getOutput());
+    }
+
+    @Test
+    public void streamDecodesInput() throws IOException {
+        byte[] bytes = "a\u00e9\u20ac\ud83d\ude00z".getBytes(StandardCharsets.UTF_8);
+        //one byte per read, so chars are split between reads
+        InputStream in = new ByteArrayInputStream(bytes) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+        };
+        StreamTerminalBackend backend = new StreamTerminalBackend(in, new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+        StringBuilder b = new StringBuilder();
+        char[] buffer = new char[8];
+        int amount;
+        while((amount = backend.read(buffer, 0, buffer.length, true)) != -1)
+            b.append(buffer, 0, amount);
+        assertEquals("Decoded input mismatches", "a\u00e9\u20ac\ud83d\ude00z", b.toString());
+    }
+
+    @Test
+    public void streamReportsMissingInput() throws IOException {
+        byte[] bytes = {'a', (byte) 0xE2, (byte) 0x82};
+        StreamTerminalBackend backend = new StreamTerminalBackend(new ByteArrayInputStream(bytes),
+                new ByteArrayOutputStream(), StandardCharsets.UTF_8);
+        assertEquals("First char mismatches", 'a', backend.read(false));
+        backend.unread(new char[]{'x'}, 0, 1);
+        assertEquals("Pushed back char should be read first", 'x', backend.read(false));
+        assertEquals("Incomplete char at the end should be invalid", 0xFFFE, backend.read(true));
+        assertEquals("End of input mismatches", -1, backend.read(true));
+        backend = new StreamTerminalBackend(new ByteArrayInputStream(new byte[0]), new ByteArrayOutputStream(),
+                StandardCharsets.UTF_8);
+        assertEquals("No available input should not wait", TerminalBackend.NO_INPUT, backend.read(false));
+    }
+
+    @Test
+    public void readerUsesTerminalBackend() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamTerminalBackend backend = new StreamTerminalBackend(
+                new ByteArrayInputStream("s\u00e9cret\nrest".getBytes(StandardCharsets.ISO_8859_1)), out,
+                StandardCharsets.ISO_8859_1);
+        ConsoleUtils.setTerminalBackend(backend);
+        assertEquals("Read line mismatches", "s\u00e9cret", ConsoleUtils.readWithInitialBuffer(""));
+        assertEquals("Output mismatches", "s\u00e9cret\n", new String(out.toByteArray(), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    public void writeErrorsAreThrown() throws IOException {
+        OutputStream disconnected = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("Disconnected");
+            }
+        };
+        StreamTerminalBackend backend = new StreamTerminalBackend(
+                new ByteArrayInputStream("ab\n".getBytes(StandardCharsets.UTF_8)), disconnected, StandardCharsets.UTF_8);
+        ConsoleUtils.setTerminalBackend(backend);
+        try {
+            ConsoleUtils.readHidden("*");
+            fail("Write error should be thrown");
+        } catch(IOException expected) {
+            assertEquals("Exception mismatches", "Disconnected", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void pipedInputIsReadByLine() throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("first\r\nsecret\nfo\t\nlast").setInteractive(false);
+        ConsoleUtils.setTerminalBackend(backend);
+        assertEquals("Line mismatches", "init first", ConsoleUtils.readWithInitialBuffer("init "));
+        assertEquals("Line mismatches", "secret", ConsoleUtils.readHidden("*"));
+        assertEquals("Line should not be completed", "fo\t", new AutoCompleter(prev -> new String[]{"foo"}).get());
+        assertEquals("Last line mismatches", "last", ConsoleUtils.readHidden(null));
+        assertEquals("End of input should return null", null, ConsoleUtils.readHidden(null));
+        assertEquals("Nothing should be written", "", backend.getOutput());
+    }
+
+    @Test
+    public void interactiveEndOfInputMatchesPipedInput() throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend("ab");
+        ConsoleUtils.setTerminalBackend(backend);
+        assertEquals("Typed chars should be returned at the end of input", "ab",
+                ConsoleUtils.readHidden(null, 1, TimeUnit.SECONDS));
+        assertEquals("End of input should return null", null, ConsoleUtils.readHidden(null, 1, TimeUnit.SECONDS));
+        assertEquals("Unchanged input should return null at the end of input", null,
+                ConsoleUtils.readWithInitialBuffer("init", 1, TimeUnit.SECONDS));
+        backend.addInput("\b");
+        assertEquals("Changed input should be returned at the end of input", "ini",
+                ConsoleUtils.readWithInitialBuffer("init", 1, TimeUnit.SECONDS));
+        assertEquals("Output mismatches", "ab\ninitinit\u0008 \u0008\n", backend.getOutput());
+    }
+
+    @Test
+    public void streamReadsLines() throws IOException {
+        StreamTerminalBackend backend = new StreamTerminalBackend(
+                new ByteArrayInputStream("a\r\n\nb".getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(),
+                StandardCharsets.UTF_8);
+        assertEquals("Line mismatches", "a", backend.readLine());
+        assertEquals("Line mismatches", "", backend.readLine());
+        assertEquals("Line mismatches", "b", backend.readLine());
+        assertEquals("End of input should return null", null, backend.readLine());
+    }
+
+    @Test
+    public void streamReadsLinesInBulk() throws IOException {
+        //longer than the input buffer, with multi-byte chars crossing its end
+        StringBuilder longLine = new StringBuilder();
+        while(longLine.length() < 5000)
+            longLine.append("\u00E4\u20AC\uD83D\uDE00x");
+        StreamTerminalBackend backend = new StreamTerminalBackend(new ByteArrayInputStream(
+                (longLine + "\nnext\r\nrest").getBytes(StandardCharsets.UTF_8)), new ByteArrayOutputStream(),
+                StandardCharsets.UTF_8);
+        assertEquals("Long line mismatches", longLine.toString(), backend.readLine());
+        backend.unread(new char[]{'a', '\n', 'b'}, 0, 3);
+        assertEquals("Pushed back line mismatches", "a", backend.readLine());
+        assertEquals("Line should continue after pushed back chars", "bnext", backend.readLine());
+        assertEquals("Char reads should continue after the line", 'r', backend.read(true));
+        assertEquals("Last line mismatches", "est", backend.readLine());
+        assertEquals("End of input should return null", null, backend.readLine());
+
+        StreamTerminalBackend utf16 = new StreamTerminalBackend(new ByteArrayInputStream(
+                "\u00E4b\nc".getBytes(StandardCharsets.UTF_16BE)), new ByteArrayOutputStream(),
+                StandardCharsets.UTF_16BE);
+        assertEquals("UTF-16 line mismatches", "\u00E4b", utf16.readLine());
+        assertEquals("UTF-16 line mismatches", "c", utf16.readLine());
+        assertEquals("End of input should return null", null, utf16.readLine());
+    }
+
+    @Test
+    public void streamReadTimesOut() throws IOException {
+        PipedOutputStream pipe = new PipedOutputStream();
+        StreamTerminalBackend backend = new StreamTerminalBackend(new PipedInputStream(pipe), new ByteArrayOutputStream(),
+                StandardCharsets.UTF_8);
+        long start = System.nanoTime();
+        assertEquals("Read without input should time out", TerminalBackend.NO_INPUT, backend.read(50));
+        assertTrue("Read should wait for the timeout", System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        pipe.write('x');
+        assertEquals("Available input should be read", 'x', backend.read(1000));
+        assertEquals("Zero timeout should not wait", TerminalBackend.NO_INPUT, backend.read(0));
+    }
+
+    @Test
+    public void idlePromptsExpire() throws IOException {
+        PipedOutputStream pipe = new PipedOutputStream();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamTerminalBackend backend = new StreamTerminalBackend(new PipedInputStream(pipe), out,
+                StandardCharsets.UTF_8);
+        ConsoleUtils.setTerminalBackend(backend);
+        List<Character> chars = new ArrayList<>();
+        pipe.write("ab".getBytes(StandardCharsets.UTF_8));
+        try {
+            ConsoleUtils.readHidden("*", 20, TimeUnit.MILLISECONDS);
+            fail("Idle prompt should expire");
+        } catch(InterruptedIOException expected) {}
+        assertEquals("Typed chars and line break should be shown", "**\n",
+                new String(out.toByteArray(), StandardCharsets.UTF_8));
+
+        pipe.write("cd".getBytes(StandardCharsets.UTF_8));
+        try {
+            ConsoleReader.startLoop(event -> chars.add(event.getAddedChar()), false, 20, TimeUnit.MILLISECONDS);
+            fail("Idle loop should expire");
+        } catch(InterruptedIOException expected) {}
+        assertEquals("Input before the timeout should be handled", Arrays.asList('c', 'd'), chars);
+    }
+}
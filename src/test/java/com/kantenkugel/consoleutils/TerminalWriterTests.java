@@ -0,0 +1,122 @@
+package com.kantenkugel.consoleutils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExternalResource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Kantenkugel (Michael Ritter)
+ */
+public class TerminalWriterTests {
+    @Rule
+    public ExternalResource terminalBackend = MockUtils.restoreTerminalBackend();
+
+    private PrintStream originalOut;
+    private ByteArrayOutputStream bos;
+    private int writes;
+
+    @Before
+    public void captureOut() {
+        originalOut = System.out;
+        bos = new ByteArrayOutputStream();
+        writes = 0;
+        System.setOut(new PrintStream(bos) {
+            @Override
+            public void write(byte[] buf, int off, int len) {
+                writes++;
+                super.write(buf, off, len);
+            }
+        });
+    }
+
+    @After
+    public void restoreOut() {
+        System.setOut(originalOut);
+    }
+
+    private String getOutput() {
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void batchIsWrittenOnce() throws IOException {
+        TerminalWriter writer = TerminalWriter.get();
+        writer.beginBatch();
+        writer.append('a').append("bc").repeat(' ', 3).repeat('\b', 3);
+        ConsoleUtils.backspace();
+        assertEquals("Nothing should be written before the batch ends", 0, writes);
+        writer.endBatch();
+        assertEquals("Batch should be written with a single write", 1, writes);
+        assertEquals("Output mismatches", "abc   \b\b\b\b \b", getOutput());
+    }
+
+    @Test
+    public void nestedBatchesWriteOnOutermostEnd() throws IOException {
+        TerminalWriter writer = TerminalWriter.get();
+        writer.beginBatch();
+        writer.beginBatch();
+        writer.append("inner");
+        writer.endBatch();
+        assertEquals("Inner batch should not write", 0, writes);
+        writer.append(" outer");
+        writer.endBatch();
+        assertEquals("Batch should be written with a single write", 1, writes);
+        assertEquals("Output mismatches", "inner outer", getOutput());
+    }
+
+    @Test
+    public void writesImmediatelyOutsideOfBatch() {
+        ConsoleUtils.backspace();
+        assertEquals("Backspace should be written with a single write", 1, writes);
+        assertEquals("Output mismatches", "\b \b", getOutput());
+    }
+
+    @Test
+    public void completionIsWrittenOncePerEvent() {
+        AutoCompleter autoCompleter = new AutoCompleter(previousInput -> new String[]{"foo", "bar"});
+        StringBuilder buffer = new StringBuilder("f");
+        autoCompleter.accept(new ConsoleInputEvent(buffer, 'f'));
+        assertEquals("Echo and suggestion should be written with a single write", 1, writes);
+        assertEquals("Output mismatches", "foo\b\b", getOutput());
+    }
+
+    private static String withAnsi(boolean ansiEscapes, Writes writes) throws IOException {
+        InMemoryTerminalBackend backend = new InMemoryTerminalBackend().setAnsiEscapes(ansiEscapes);
+        ConsoleUtils.setTerminalBackend(backend);
+        writes.accept(TerminalWriter.get());
+        return backend.getOutput();
+    }
+
+    private interface Writes {
+        void accept(TerminalWriter out) throws IOException;
+    }
+
+    @Test
+    public void cursorMovesUseShortestOutput() throws IOException {
+        assertEquals("Short moves should use backspaces and the shown text", "\b\b\b|ab|",
+                withAnsi(true, out -> out.cursorLeft(3).append('|').cursorRight("abcdefghijkl", 0, 2).append('|')));
+        assertEquals("Long moves should use escape sequences", "\u001B[5D|\u001B[12C",
+                withAnsi(true, out -> out.cursorLeft(5).append('|').cursorRight("abcdefghijkl", 0, 12)));
+        assertEquals("Moves without ANSI support mismatch", "\b\b\b\b\b|abcdefghijkl",
+                withAnsi(false, out -> out.cursorLeft(5).append('|').cursorRight("abcdefghijkl", 0, 12)));
+    }
+
+    @Test
+    public void eraseUsesShortestOutput() throws IOException {
+        assertEquals("Single columns should be overwritten", " \b|\b \b",
+                withAnsi(true, out -> out.eraseToEnd(1).append('|').erase(1)));
+        assertEquals("Multiple columns should be erased with escape sequences", "\u001B[K|\u001B[12D\u001B[K",
+                withAnsi(true, out -> out.eraseToEnd(4).append('|').erase(12)));
+        assertEquals("Erase without ANSI support mismatches", "  \b\b|\b \b\b \b",
+                withAnsi(false, out -> out.eraseToEnd(2).append('|').erase(2)));
+    }
+}